@@ -18,6 +18,7 @@ import android.widget.Toast;
 import java.util.List;
 
 import gtec.java.unicorn.Unicorn;
+import gtec.java.unicorn.UnicornSession;
 
 public class MainActivity extends AppCompatActivity implements View.OnClickListener{
 
@@ -27,8 +28,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     private Spinner _spnDevices = null;
     private TextView _tvState = null;
     private Unicorn _unicorn = null;
+    private UnicornSession _session = null;
     private Thread _receiver;
-    private boolean _receiverRunning = false;
+    private volatile boolean _receiverRunning = false;
     private Context _context = null;
     private  int _cnt = 0;
 
@@ -149,7 +151,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             {
                 try
                 {
-                    float[] data = _unicorn.GetData();
+                    float[] data = _session.GetData();
 
                     //update main ui
                     _cnt++;
@@ -170,6 +172,10 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 }
                 catch (Exception ex)
                 {
+                    //acquisition was stopped by Disconnect
+                    if(!_receiverRunning)
+                        break;
+
                     //disconnect and update main ui
                     Handler mainHandler = new Handler( _context.getMainLooper());
                     Runnable myRunnable = new Runnable() {
@@ -183,11 +189,32 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                         }
                     };
                     mainHandler.post(myRunnable);
+                    break;
                 }
             }
         }
     };
 
+    private UnicornSession.GapListener _gapListener = new UnicornSession.GapListener()
+    {
+        @Override
+        public void OnGap(long firstLostSample, int numberOfSamplesLost, long recoveryTimeMs)
+        {
+            //update main ui
+            Handler mainHandler = new Handler( _context.getMainLooper());
+            Runnable myRunnable = new Runnable() {
+                @Override
+                public void run()
+                {
+                    String message = _tvState.getText().toString();
+                    message += String.format("\nConnection recovered after %d ms. %d samples lost.\n", recoveryTimeMs, numberOfSamplesLost);
+                    _tvState.setText(message);
+                }
+            };
+            mainHandler.post(myRunnable);
+        }
+    };
+
     private void Connect()
     {
         _btnConnect.setEnabled(false);
@@ -202,6 +229,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
             //connect to device
             _unicorn = new Unicorn(device);
+            _session = new UnicornSession(_unicorn);
+            _session.SetGapListener(_gapListener);
             _btnConnect.setText(_btnDisconStr);
 
             //update ui message
@@ -210,7 +239,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             _tvState.setText(message);
 
             //start acquisition
-            _unicorn.StartAcquisition();
+            _session.StartAcquisition();
 
             message += "Acquisition running.\n";
             _tvState.setText(message);
@@ -220,9 +249,10 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         catch (Exception ex)
         {
             //close device
+            if(_unicorn != null)
+                _unicorn.Close();
             _unicorn = null;
-            System.gc();
-            System.runFinalization();
+            _session = null;
 
             _btnConnect.setText(_btnConStr);
             _spnDevices.setEnabled(true);
@@ -236,6 +266,10 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
     private void Disconnect()
     {
+        //already disconnected, e.g. by the user before a posted disconnect ran
+        if(_session == null)
+            return;
+
         _btnConnect.setEnabled(false);
         String device = (String)_spnDevices.getSelectedItem();
         String message = _tvState.getText().toString();
@@ -249,16 +283,17 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             StopReceiver();
 
             //stop acquisition
-            _unicorn.StopAcquisition();
+            _session.StopAcquisition();
 
             //update ui message
             message += String.format("Disconnecting from %s...\n", device);
             _tvState.setText(message);
 
             //close device
+            if(_unicorn != null)
+                _unicorn.Close();
             _unicorn = null;
-            System.gc();
-            System.runFinalization();
+            _session = null;
 
             message += "Disconnected";
             _tvState.setText(message);
@@ -268,9 +303,10 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         catch (Exception ex)
         {
             //close device
+            if(_unicorn != null)
+                _unicorn.Close();
             _unicorn = null;
-            System.gc();
-            System.runFinalization();
+            _session = null;
 
             _btnConnect.setText(_btnConStr);
 
@@ -0,0 +1,126 @@
+package gtec.java.unicorn;
+
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single writer for the device output stream. Commands and keep-alive messages are written
+ * by one background thread, so the acquisition path never writes to the stream itself.
+ */
+class CommandChannel {
+
+    /**
+     * Constant Members...
+     */
+    private final static byte[] KeepAliveMessage = { 0 };
+
+    /**
+     * Private Members...
+     */
+    private OutputStream _outputStream = null;
+    private ScheduledExecutorService _writer = null;
+    private ScheduledFuture<?> _keepAlive = null;
+    private volatile Exception _writeFailure = null;
+
+    CommandChannel(OutputStream outputStream)
+    {
+        _outputStream = outputStream;
+        _writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "UnicornCommandChannel");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Writes a precomputed frame and waits at most timeoutMs for the write to complete.
+     */
+    void Send(final byte[] message, int timeoutMs) throws Exception
+    {
+        Future<?> write = _writer.submit(new Runnable() {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    _outputStream.write(message, 0, message.length);
+                }
+                catch(Exception e)
+                {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            }
+        });
+
+        try
+        {
+            write.get(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        catch(TimeoutException e)
+        {
+            write.cancel(true);
+            throw new Exception("Could not send command. Write timed out.");
+        }
+        catch(ExecutionException e)
+        {
+            throw new Exception(String.format("Could not send command. %s", e.getCause().getMessage()));
+        }
+    }
+
+    /**
+     * Writes a dummy byte periodically to keep acquisition alive (acquisition gets stuck on most android devices otherwise).
+     */
+    void StartKeepAlive(int periodMs)
+    {
+        StopKeepAlive();
+        _writeFailure = null;
+        _keepAlive = _writer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    _outputStream.write(KeepAliveMessage, 0, KeepAliveMessage.length);
+                }
+                catch(Exception e)
+                {
+                    _writeFailure = e;
+                }
+            }
+        }, 0, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    void StopKeepAlive()
+    {
+        if(_keepAlive != null)
+        {
+            _keepAlive.cancel(false);
+            _keepAlive = null;
+        }
+    }
+
+    /**
+     * Returns the exception of the last failed keep-alive write or null.
+     */
+    Exception GetWriteFailure()
+    {
+        return _writeFailure;
+    }
+
+    void Close()
+    {
+        StopKeepAlive();
+        _writer.shutdownNow();
+    }
+}
@@ -0,0 +1,324 @@
+package gtec.java.unicorn;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cuts fixed windows around stimulus markers out of the acquisition stream.
+ * Scans returned by GetData are kept in a bounded lookback ring. Markers are given as sample counter
+ * or host timestamp. As soon as the post-stimulus part of a marker is complete the epoch is emitted
+ * as a channel-major block. All buffers are allocated in the constructor.
+ */
+public class EpochExtractor {
+
+    /**
+     * Listener receiving completed epochs. The epoch is reused and only valid during the call.
+     */
+    public interface EpochListener
+    {
+        void OnEpoch(Epoch epoch);
+    }
+
+    public static class Epoch
+    {
+        private float[][] _data;
+        private long _markerSample;
+        private int _markerCode;
+
+        private Epoch(int numberOfChannels, int numberOfSamples)
+        {
+            _data = new float[numberOfChannels][numberOfSamples];
+        }
+
+        /**
+         * Returns the epoch data as [channel][sample].
+         */
+        public float[][] GetData()
+        {
+            return _data;
+        }
+
+        public long GetMarkerSample()
+        {
+            return _markerSample;
+        }
+
+        public int GetMarkerCode()
+        {
+            return _markerCode;
+        }
+    }
+
+    /**
+     * Private Members...
+     */
+    private int _numberOfChannels;
+    private int _preStimulusSamples;
+    private int _postStimulusSamples;
+    private int _ringLength;
+    private float[][] _ring = null;
+    private long[] _ringCounter = null;
+    private long _latestCounter = 0;
+    private long _latestTimestamp = 0;
+    private boolean _dataAvailable = false;
+    private long[] _markerSamples = null;
+    private int[] _markerCodes = null;
+    private int _numberOfMarkers = 0;
+    private long _numberOfDroppedMarkers = 0;
+    private boolean _baselineCorrection = false;
+    private Epoch _epoch = null;
+    private EpochListener _listener = null;
+    private ReentrantLock _lock;
+
+    /**
+     * @param numberOfChannels number of leading scan channels to epoch, e.g. UnicornStream.NumberOfEEGChannels
+     * @param preStimulusSamples samples before the marker, e.g. 50 for -200 ms
+     * @param postStimulusSamples samples from the marker on, e.g. 200 for +800 ms
+     * @param lookbackSamples ring length; must cover the epoch plus the expected marker latency
+     * @param maxPendingMarkers maximum number of markers waiting for their post-stimulus part
+     */
+    public EpochExtractor(int numberOfChannels, int preStimulusSamples, int postStimulusSamples, int lookbackSamples, int maxPendingMarkers) throws Exception
+    {
+        if(numberOfChannels <= 0 || numberOfChannels > UnicornStream.NumberOfAcquiredChannels)
+            throw new Exception("Invalid number of channels.");
+        if(preStimulusSamples < 0 || postStimulusSamples <= 0)
+            throw new Exception("Invalid epoch length.");
+        if(lookbackSamples < preStimulusSamples + postStimulusSamples)
+            throw new Exception("Lookback must be at least as long as an epoch.");
+        if(maxPendingMarkers <= 0)
+            throw new Exception("Invalid number of pending markers.");
+
+        _lock = new ReentrantLock();
+        _numberOfChannels = numberOfChannels;
+        _preStimulusSamples = preStimulusSamples;
+        _postStimulusSamples = postStimulusSamples;
+        _ringLength = lookbackSamples;
+        _ring = new float[numberOfChannels][lookbackSamples];
+        _ringCounter = new long[lookbackSamples];
+        Arrays.fill(_ringCounter, Long.MIN_VALUE);
+        _markerSamples = new long[maxPendingMarkers];
+        _markerCodes = new int[maxPendingMarkers];
+        _epoch = new Epoch(numberOfChannels, preStimulusSamples + postStimulusSamples);
+    }
+
+    public static int SamplesFromMilliseconds(int milliseconds)
+    {
+        return (int)Math.round(milliseconds * UnicornStream.SamplingRateInHz / 1000.0);
+    }
+
+    public void SetEpochListener(EpochListener listener)
+    {
+        _listener = listener;
+    }
+
+    /**
+     * Enables subtraction of the pre-stimulus mean of each channel.
+     */
+    public void SetBaselineCorrection(boolean enabled)
+    {
+        _baselineCorrection = enabled;
+    }
+
+    public long GetNumberOfDroppedMarkers()
+    {
+        return _numberOfDroppedMarkers;
+    }
+
+    /**
+     * Adds a marker at the given sample counter, in the same domain as the counters passed to PutData.
+     */
+    public void AddMarkerAtSample(long sampleCounter, int code) throws Exception
+    {
+        try
+        {
+            _lock.lock();
+
+            AddMarker(sampleCounter, code);
+
+            _lock.unlock();
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds a marker at the given host time (System.currentTimeMillis). The time is mapped to a
+     * sample counter relative to the reception time of the most recent scan.
+     */
+    public void AddMarkerAtTime(long timestampMs, int code) throws Exception
+    {
+        try
+        {
+            _lock.lock();
+
+            if(!_dataAvailable)
+                throw new Exception("Put data first.");
+
+            long sampleCounter = _latestCounter + Math.round((timestampMs - _latestTimestamp) * UnicornStream.SamplingRateInHz / 1000.0);
+            AddMarker(sampleCounter, code);
+
+            _lock.unlock();
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    public void PutData(float[] scan) throws Exception
+    {
+        PutData(scan, System.currentTimeMillis());
+    }
+
+    /**
+     * Stores a scan as returned by GetData and emits all epochs completed by it.
+     * The sample counter is continued internally while the counter channel matches the next sample
+     * (also across the 32-bit wrap) and only taken from the counter channel on a discontinuity, as the
+     * channel is not exact for long recordings (see UnicornStream.CounterChannelIndex). Use the overload
+     * with the exact counter if scans can be discontinuous.
+     */
+    public void PutData(float[] scan, long timestampMs) throws Exception
+    {
+        try
+        {
+            _lock.lock();
+
+            if(scan.length != UnicornStream.NumberOfAcquiredChannels)
+                throw new Exception("Invalid scan length.");
+
+            long counter = (long)scan[UnicornStream.CounterChannelIndex];
+            if(_dataAvailable && scan[UnicornStream.CounterChannelIndex] == (float)((_latestCounter + 1) & 0xFFFFFFFFL))
+                counter = _latestCounter + 1;
+            PutData(scan, counter, timestampMs);
+
+            _lock.unlock();
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Stores a scan with its exact sample counter and emits all epochs completed by it.
+     * The counter must not wrap, i.e. the 32-bit device counter has to be unwrapped by the caller.
+     */
+    public void PutData(float[] scan, long counter, long timestampMs) throws Exception
+    {
+        try
+        {
+            _lock.lock();
+
+            if(scan.length != UnicornStream.NumberOfAcquiredChannels)
+                throw new Exception("Invalid scan length.");
+
+            //store scan in ring
+            int index = RingIndex(counter);
+            for(int i = 0; i < _numberOfChannels; i++)
+                _ring[i][index] = scan[i];
+            _ringCounter[index] = counter;
+            _latestCounter = counter;
+            _latestTimestamp = timestampMs;
+            _dataAvailable = true;
+
+            //emit completed epochs
+            int i = 0;
+            while(i < _numberOfMarkers)
+            {
+                if(_markerSamples[i] + _postStimulusSamples - 1 <= counter)
+                {
+                    EmitEpoch(_markerSamples[i], _markerCodes[i]);
+                    RemoveMarker(i);
+                }
+                else
+                {
+                    i++;
+                }
+            }
+
+            _lock.unlock();
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    private void AddMarker(long sampleCounter, int code)
+    {
+        //drop markers whose pre-stimulus part already left the ring or if too many are pending
+        if((_dataAvailable && sampleCounter - _preStimulusSamples <= _latestCounter - _ringLength) || _numberOfMarkers == _markerSamples.length)
+        {
+            _numberOfDroppedMarkers++;
+            return;
+        }
+
+        _markerSamples[_numberOfMarkers] = sampleCounter;
+        _markerCodes[_numberOfMarkers] = code;
+        _numberOfMarkers++;
+    }
+
+    private void RemoveMarker(int index)
+    {
+        for(int i = index; i < _numberOfMarkers - 1; i++)
+        {
+            _markerSamples[i] = _markerSamples[i + 1];
+            _markerCodes[i] = _markerCodes[i + 1];
+        }
+        _numberOfMarkers--;
+    }
+
+    private void EmitEpoch(long markerSample, int markerCode)
+    {
+        //check that the whole window is contiguous in the ring
+        long first = markerSample - _preStimulusSamples;
+        int epochLength = _preStimulusSamples + _postStimulusSamples;
+        for(int j = 0; j < epochLength; j++)
+        {
+            if(_ringCounter[RingIndex(first + j)] != first + j)
+            {
+                _numberOfDroppedMarkers++;
+                return;
+            }
+        }
+
+        //copy window channel-major
+        float[][] data = _epoch._data;
+        int start = RingIndex(first);
+        int firstPart = Math.min(epochLength, _ringLength - start);
+        for(int i = 0; i < _numberOfChannels; i++)
+        {
+            System.arraycopy(_ring[i], start, data[i], 0, firstPart);
+            System.arraycopy(_ring[i], 0, data[i], firstPart, epochLength - firstPart);
+
+            //baseline correction
+            if(_baselineCorrection && _preStimulusSamples > 0)
+            {
+                float baseline = 0;
+                for(int j = 0; j < _preStimulusSamples; j++)
+                    baseline += data[i][j];
+                baseline /= _preStimulusSamples;
+
+                for(int j = 0; j < epochLength; j++)
+                    data[i][j] -= baseline;
+            }
+        }
+        _epoch._markerSample = markerSample;
+        _epoch._markerCode = markerCode;
+
+        if(_listener != null)
+            _listener.OnEpoch(_epoch);
+    }
+
+    private int RingIndex(long counter)
+    {
+        int index = (int)(counter % _ringLength);
+        return index < 0 ? index + _ringLength : index;
+    }
+}
@@ -0,0 +1,454 @@
+package gtec.java.unicorn;
+
+/**
+ * Decodes the Unicorn byte stream into scans: frame synchronization, conversion, interpolation of
+ * lost samples and matching of command acknowledges. The decoder holds no locks and no Android
+ * dependencies; use one decoder per stream, e.g. for frames relayed to a server.
+ * The scan fifo holds at most MaxBufferSizeInSeconds of data; older scans are discarded and counted.
+ * After an invalid payload the decoder resynchronizes on the next header byte, so inserted or missing
+ * bytes cost only the damaged frame. A frame whose counter does not continue the previous one is held
+ * until the next frame confirms it; a corrupted counter is corrected from the next frame instead of
+ * producing a gap.
+ */
+public class FrameDecoder {
+
+    /**
+     * Constant Members...
+     */
+    final static float EegScale = (4500000.0f) / (50331642.0f);
+    final static int MaxBufferSizeInSeconds = 60;
+    final static int MaxNumberOfScans = UnicornStream.SamplingRateInHz * MaxBufferSizeInSeconds;
+    private final static int BufferSizeInSeconds = 10;
+    private final static byte TotalPayloadLengthInBytes = 45;
+    private final static  byte[] HeaderStartSequence = { (byte)0xC0, (byte)0x00 };
+    private final static  byte[] FooterStopSequence = { (byte)0x0D, (byte)0x0A };
+    private final static float BatteryScale = (1.2f / 16.0f);
+    private final static float BatteryOffset = 3.0f;
+    private final static float BatteryPercentageFactor = 100.0f / 4.2f;
+    private final static byte BatteryBitMask = 0x0F;
+    private final static float AccelerometerScale = (1.0f / 4096.0f);
+    private final static float GyroscopeScale = (1.0f / 32.8f);
+    private final static byte HeaderLength = 2;
+    private final static byte BytesPerBatteryLevelChannel = 1;
+    private final static byte BatteryLevelLength = (byte)(UnicornStream.NumberOfBatteryLevelChannels * BytesPerBatteryLevelChannel);
+    private final static byte BatteryLevelOffset = (byte)(HeaderLength);
+    private final static byte BytesPerEegChannel = 3;
+    private final static byte EegLength = (byte)(UnicornStream.NumberOfEEGChannels * BytesPerEegChannel);
+    private final static byte EegOffset = (byte)(HeaderLength + BatteryLevelLength);
+    private final static byte BytesPerAccChannel = 2;
+    private final static byte AccLength = (byte)(UnicornStream.NumberOfAccChannels * BytesPerAccChannel);
+    private final static byte AccOffset = (byte)(HeaderLength + BatteryLevelLength + EegLength);
+    private final static byte BytesPerGyrChannel = 2;
+    private final static byte GyrLength = (byte)(UnicornStream.NumberOfGyrChannels * BytesPerGyrChannel);
+    private final static byte GyrOffset = (byte)(HeaderLength + BatteryLevelLength + EegLength + AccLength);
+    private final static byte CntOffset = (byte)(HeaderLength + BatteryLevelLength + EegLength + AccLength + GyrLength);
+
+    /**
+     * Private Members...
+     */
+    private byte[] _bytes = null;
+    private int _byteStart = 0;
+    private int _byteEnd = 0;
+    private float[] _scans = null;
+    private long[] _counters = null;
+    private int _scanStart = 0;
+    private int _numberOfScans = 0;
+    private long _lastCounter = 0;
+    private long _numberOfScansOverflowed = 0;
+    private float[] _payload = null;
+    private float[] _prevPayload = null;
+    private long _prevCounter = 0;
+    private boolean _resyncCounter = true;
+    private byte[] _pendingAck = null;
+    private int _ackMatchCount = 0;
+    private boolean _ackReceived = false;
+    private long _numberOfInvalidFrames = 0;
+    private int _numberOfRejectedBytes = 0;
+    private float[] _heldPayload = null;
+    private long _heldCounter = 0;
+    private boolean _frameHeld = false;
+
+    public FrameDecoder()
+    {
+        _bytes = new byte[UnicornStream.SamplingRateInHz * TotalPayloadLengthInBytes];
+        _scans = new float[UnicornStream.SamplingRateInHz * UnicornStream.NumberOfAcquiredChannels * BufferSizeInSeconds];
+        _counters = new long[UnicornStream.SamplingRateInHz * BufferSizeInSeconds];
+        _payload = new float[UnicornStream.NumberOfAcquiredChannels];
+        _prevPayload = new float[UnicornStream.NumberOfAcquiredChannels];
+        _heldPayload = new float[UnicornStream.NumberOfAcquiredChannels];
+    }
+
+    /**
+     * Appends received bytes and decodes all complete frames.
+     */
+    public void PutData(byte[] data, int offset, int length)
+    {
+        //make room in byte buffer
+        if (_byteEnd + length > _bytes.length)
+        {
+            int numberOfBytes = _byteEnd - _byteStart;
+            byte[] bytes = _bytes;
+            if (numberOfBytes + length > _bytes.length)
+                bytes = new byte[Math.max(2 * _bytes.length, numberOfBytes + length)];
+            System.arraycopy(_bytes, _byteStart, bytes, 0, numberOfBytes);
+            _bytes = bytes;
+            _byteStart = 0;
+            _byteEnd = numberOfBytes;
+        }
+
+        System.arraycopy(data, offset, _bytes, _byteEnd, length);
+        _byteEnd += length;
+        Decode();
+    }
+
+    public int GetNumberOfScansAvailable()
+    {
+        return _numberOfScans;
+    }
+
+    /**
+     * Copies the oldest decoded scan into the given array.
+     * @return false if no scan is available
+     */
+    public boolean GetData(float[] scan)
+    {
+        if (_numberOfScans == 0)
+            return false;
+
+        System.arraycopy(_scans, _scanStart * UnicornStream.NumberOfAcquiredChannels, scan, 0, UnicornStream.NumberOfAcquiredChannels);
+        _lastCounter = _counters[_scanStart];
+        _scanStart = (_scanStart + 1) % GetScanCapacity();
+        _numberOfScans--;
+        return true;
+    }
+
+    /**
+     * Returns the exact 32-bit device counter of the scan last returned by GetData (see UnicornStream.CounterChannelIndex).
+     */
+    public long GetLastCounter()
+    {
+        return _lastCounter;
+    }
+
+    public long GetNumberOfInvalidFrames()
+    {
+        return _numberOfInvalidFrames;
+    }
+
+    /**
+     * Returns the number of scans discarded because the consumer fell more than MaxBufferSizeInSeconds behind.
+     */
+    public long GetNumberOfScansOverflowed()
+    {
+        return _numberOfScansOverflowed;
+    }
+
+    /**
+     * Starts matching the given acknowledge on bytes outside of frames.
+     */
+    public void ExpectAck(byte[] ack)
+    {
+        _pendingAck = ack;
+        _ackMatchCount = 0;
+        _ackReceived = false;
+    }
+
+    public void CancelAck()
+    {
+        _pendingAck = null;
+    }
+
+    public boolean IsAckReceived()
+    {
+        return _ackReceived;
+    }
+
+    /**
+     * The next frame does not trigger interpolation of lost samples, e.g. after a restart or reconnect.
+     * A held frame is delivered as received, without interpolating its unconfirmed gap.
+     */
+    public void Resync()
+    {
+        if (_frameHeld)
+        {
+            _frameHeld = false;
+            _prevCounter = (_heldCounter - 1) & 0xFFFFFFFFL;
+            AddPayload(_heldPayload, _heldCounter);
+        }
+        _resyncCounter = true;
+    }
+
+    /**
+     * Discards buffered bytes, scans and a held frame.
+     */
+    public void Clear()
+    {
+        _byteStart = 0;
+        _byteEnd = 0;
+        _scanStart = 0;
+        _numberOfScans = 0;
+        _numberOfRejectedBytes = 0;
+        _frameHeld = false;
+    }
+
+    private void Decode()
+    {
+        while (_byteStart < _byteEnd)
+        {
+            //bytes outside of a payload are matched against a pending acknowledge (bytes of a rejected payload are not)
+            if (_bytes[_byteStart] != HeaderStartSequence[0] && !IsFrameWithDamagedHeader(_byteStart))
+            {
+                if (_numberOfRejectedBytes > 0)
+                    _numberOfRejectedBytes--;
+                else
+                    MatchAck(_bytes[_byteStart]);
+                _byteStart++;
+                continue;
+            }
+
+            //wait for complete payload
+            if (_byteEnd - _byteStart < TotalPayloadLengthInBytes)
+                break;
+
+            //if valid payload was detected
+            int frame = _byteStart;
+            if (_bytes[frame] == HeaderStartSequence[0] &&
+                    _bytes[frame + 1] == HeaderStartSequence[1] &&
+                    _bytes[frame + TotalPayloadLengthInBytes - 2] == FooterStopSequence[0] &&
+                    _bytes[frame + TotalPayloadLengthInBytes - 1] == FooterStopSequence[1])
+            {
+                _byteStart += TotalPayloadLengthInBytes;
+                _numberOfRejectedBytes = 0;
+
+                //convert raw payload
+                ConvertRawPayload(_bytes, frame, _payload);
+                PutFrame(GetCounter(_bytes, frame));
+            }
+            else
+            {
+                //resynchronize on the next header byte, the payload may be shifted by inserted or missing bytes
+                _numberOfInvalidFrames++;
+                _byteStart++;
+                _numberOfRejectedBytes = TotalPayloadLengthInBytes - 1;
+            }
+        }
+
+        if (_byteStart == _byteEnd)
+        {
+            _byteStart = 0;
+            _byteEnd = 0;
+        }
+    }
+
+    /**
+     * Returns true if a complete frame with a damaged sync byte starts at the given position.
+     * A partially received frame is not detected and its bytes are matched against a pending acknowledge.
+     */
+    private boolean IsFrameWithDamagedHeader(int frame)
+    {
+        //a pending acknowledge takes precedence
+        if (_pendingAck != null)
+        {
+            if (_ackMatchCount > 0)
+                return false;
+            if (_byteEnd - frame >= _pendingAck.length)
+            {
+                boolean ack = true;
+                for (int i = 0; i < _pendingAck.length; i++)
+                    ack &= _bytes[frame + i] == _pendingAck[i];
+                if (ack)
+                    return false;
+            }
+        }
+
+        return _byteEnd - frame >= TotalPayloadLengthInBytes &&
+                _bytes[frame + 1] == HeaderStartSequence[1] &&
+                _bytes[frame + TotalPayloadLengthInBytes - 2] == FooterStopSequence[0] &&
+                _bytes[frame + TotalPayloadLengthInBytes - 1] == FooterStopSequence[1];
+    }
+
+    private void PutFrame(long counter)
+    {
+        //do not interpolate across a restart or reconnect
+        if (_resyncCounter)
+        {
+            _resyncCounter = false;
+            _prevCounter = (counter - 1) & 0xFFFFFFFFL;
+            AddPayload(_payload, counter);
+            return;
+        }
+
+        //a held frame is confirmed by its successor, or its counter was corrupted if the successor continues the previous frame
+        if (_frameHeld)
+        {
+            _frameHeld = false;
+            long difference = (counter - _prevCounter) & 0xFFFFFFFFL;
+            long heldDifference = (_heldCounter - _prevCounter) & 0xFFFFFFFFL;
+            if (((counter - _heldCounter) & 0xFFFFFFFFL) == 1)
+            {
+                AddPayload(_heldPayload, _heldCounter);
+            }
+            else if (difference > 0 && difference <= Integer.MAX_VALUE && (heldDifference == 0 || heldDifference >= difference))
+            {
+                if (difference == 1)
+                {
+                    //no room for the held frame, e.g. a false frame found in misaligned data
+                    _numberOfInvalidFrames++;
+                }
+                else
+                {
+                    long heldCounter = (counter - 1) & 0xFFFFFFFFL;
+                    _heldPayload[UnicornStream.CounterChannelIndex] = (float)heldCounter;
+                    AddPayload(_heldPayload, heldCounter);
+                }
+            }
+            else
+            {
+                AddPayload(_heldPayload, _heldCounter);
+            }
+        }
+
+        //hold a frame that does not continue the previous one until the next frame arrives
+        if (((counter - _prevCounter) & 0xFFFFFFFFL) != 1)
+        {
+            System.arraycopy(_payload, 0, _heldPayload, 0, _payload.length);
+            _heldCounter = counter;
+            _frameHeld = true;
+            return;
+        }
+        AddPayload(_payload, counter);
+    }
+
+    private void AddPayload(float[] payload, long counter)
+    {
+        //validate payload (on the integer counter; handles 32-bit wrap)
+        long counterDifference = (counter - _prevCounter) & 0xFFFFFFFFL;
+        int numberOfSamplesLost = counterDifference <= Integer.MAX_VALUE ? (int)(counterDifference - 1) : 0;
+
+        //scans that would not fit into the fifo are not generated
+        int numberOfSamplesSkipped = Math.max(0, numberOfSamplesLost - MaxNumberOfScans);
+        _numberOfScansOverflowed += numberOfSamplesSkipped;
+
+        //interpolate lost payloads
+        for (int i = numberOfSamplesSkipped; i < numberOfSamplesLost; i++)
+        {
+            //counter
+            long fillCounter = (_prevCounter + i + 1) & 0xFFFFFFFFL;
+            _prevPayload[UnicornStream.CounterChannelIndex] = (float)fillCounter;
+
+            //validation indicator
+            _prevPayload[UnicornStream.ValidationIndicatorChannelIndex] = 0;
+
+            AddScan(_prevPayload, fillCounter);
+        }
+
+        //validation indicator
+        payload[UnicornStream.ValidationIndicatorChannelIndex] = 1;
+
+        //fifo in
+        AddScan(payload, counter);
+
+        //store last payload
+        System.arraycopy(payload, 0, _prevPayload, 0, payload.length);
+        _prevCounter = counter;
+    }
+
+    private void MatchAck(byte data)
+    {
+        if (_pendingAck == null)
+            return;
+
+        if (data == _pendingAck[_ackMatchCount])
+            _ackMatchCount++;
+        else
+            _ackMatchCount = (data == _pendingAck[0]) ? 1 : 0;
+
+        if (_ackMatchCount == _pendingAck.length)
+        {
+            _pendingAck = null;
+            _ackReceived = true;
+        }
+    }
+
+    private int GetScanCapacity()
+    {
+        return _scans.length / UnicornStream.NumberOfAcquiredChannels;
+    }
+
+    private void AddScan(float[] scan, long counter)
+    {
+        //grow scan fifo up to MaxNumberOfScans if the consumer falls behind, then discard the oldest scan
+        int capacity = GetScanCapacity();
+        if (_numberOfScans == capacity && capacity < MaxNumberOfScans)
+        {
+            int newCapacity = Math.min(2 * capacity, MaxNumberOfScans);
+            float[] scans = new float[newCapacity * UnicornStream.NumberOfAcquiredChannels];
+            long[] counters = new long[newCapacity];
+            int firstPart = capacity - _scanStart;
+            System.arraycopy(_scans, _scanStart * UnicornStream.NumberOfAcquiredChannels, scans, 0, firstPart * UnicornStream.NumberOfAcquiredChannels);
+            System.arraycopy(_scans, 0, scans, firstPart * UnicornStream.NumberOfAcquiredChannels, _scanStart * UnicornStream.NumberOfAcquiredChannels);
+            System.arraycopy(_counters, _scanStart, counters, 0, firstPart);
+            System.arraycopy(_counters, 0, counters, firstPart, _scanStart);
+            _scans = scans;
+            _counters = counters;
+            _scanStart = 0;
+            capacity = newCapacity;
+        }
+        else if (_numberOfScans == capacity)
+        {
+            _scanStart = (_scanStart + 1) % capacity;
+            _numberOfScans--;
+            _numberOfScansOverflowed++;
+        }
+
+        int index = (_scanStart + _numberOfScans) % capacity;
+        System.arraycopy(scan, 0, _scans, index * UnicornStream.NumberOfAcquiredChannels, UnicornStream.NumberOfAcquiredChannels);
+        _counters[index] = counter;
+        _numberOfScans++;
+    }
+
+    private static void ConvertRawPayload(byte[] rawPayload, int offset, float[] payload)
+    {
+        //eeg
+        for (int i = 0; i < UnicornStream.NumberOfEEGChannels; i++)
+        {
+            int eegTemp = (((rawPayload[offset + EegOffset + i * BytesPerEegChannel] & 0xFF) << 16) |
+                    ((rawPayload[offset + EegOffset + i * BytesPerEegChannel + 1] & 0xFF) << 8) |
+                    (rawPayload[offset + EegOffset + i * BytesPerEegChannel + 2] & 0xFF));
+
+            //check if first bit is 1 (2s complement)
+            if ((eegTemp & 0x00800000) == 0x00800000)
+                eegTemp = (eegTemp | 0xFF000000);
+
+            payload[i] = (float)eegTemp * EegScale;
+        }
+
+        //accelerometer
+        for (byte i = 0; i < UnicornStream.NumberOfAccChannels; i++)
+        {
+            short accTemp = (short)((rawPayload[offset + AccOffset + i * BytesPerAccChannel] & 0xFF) |
+                    ((rawPayload[offset + AccOffset + i * BytesPerAccChannel + 1] & 0xFF) << 8));
+
+            payload[i + UnicornStream.NumberOfEEGChannels] = (float)accTemp * AccelerometerScale;
+        }
+
+        //gyroscope
+        for (byte i = 0; i < UnicornStream.NumberOfGyrChannels; i++)
+        {
+            short gyrTemp = (short)((rawPayload[offset + GyrOffset + i * BytesPerGyrChannel] & 0xFF) |
+                    ((rawPayload[offset + GyrOffset + i * BytesPerGyrChannel + 1] & 0xFF) << 8));
+            payload[i + UnicornStream.NumberOfEEGChannels + UnicornStream.NumberOfAccChannels] = (float)gyrTemp * GyroscopeScale;
+        }
+
+        //battery level
+        payload[UnicornStream.NumberOfEEGChannels + UnicornStream.NumberOfAccChannels + UnicornStream.NumberOfGyrChannels] = ((rawPayload[offset + BatteryLevelOffset] & BatteryBitMask) * BatteryScale + BatteryOffset) * BatteryPercentageFactor;
+
+        //counter
+        payload[UnicornStream.CounterChannelIndex] = GetCounter(rawPayload, offset);
+    }
+
+    private static long GetCounter(byte[] rawPayload, int offset)
+    {
+        return ((rawPayload[offset + CntOffset] & 0xFF) | (rawPayload[offset + CntOffset + 1] & 0xFF) << 8 | (rawPayload[offset + CntOffset + 2] & 0xFF) << 16 | (long)(rawPayload[offset + CntOffset + 3] & 0xFF) << 24);
+    }
+}
@@ -0,0 +1,202 @@
+package gtec.java.unicorn;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped ring buffer the acquisition side writes scans into, so other processes can read
+ * the live stream without an IPC call per sample (see SharedMemoryRingReader).
+ *
+ * File layout (little endian):
+ *   0  int   magic
+ *   4  int   version
+ *   8  int   number of channels per scan
+ *   12 int[6] channel layout (eeg, acc, gyr, battery, counter, validation indicator)
+ *   36 int   capacity in scans
+ *   40 int   slot size in bytes
+ *   48 long  write sequence (number of scans written)
+ *   56 long  64-bit sample counter of the last scan written
+ *   64       slots: long sequence stamp, long 64-bit sample counter, channel values as float
+ * A slot stamp of n + 1 marks slot content of scan n, 0 marks a slot being written.
+ *
+ * Memory ordering: Java 8 and Android before API 33 offer no release/acquire access to mapped
+ * memory (VarHandle). Writer and reader therefore separate the stamp, slot content and header
+ * accesses with full fences built from a volatile store/load pair (see Fence). HotSpot and ART
+ * compile these to hardware barriers on x86, x86-64, ARMv7 and ARMv8, so the stamp check detects
+ * torn reads there; the Java memory model itself does not cover memory shared with another process.
+ * Readers written in other languages must load the write sequence and stamps with acquire semantics.
+ */
+public class SharedMemoryRing {
+
+    /**
+     * Public Members...
+     */
+    public final static int Magic = 0x554E4352;
+    public final static int Version = 2;
+
+    /**
+     * Constant Members...
+     */
+    final static int MagicOffset = 0;
+    final static int VersionOffset = 4;
+    final static int NumberOfChannelsOffset = 8;
+    final static int LayoutOffset = 12;
+    final static int LayoutLength = 6;
+    final static int CapacityOffset = 36;
+    final static int SlotSizeOffset = 40;
+    final static int WriteSequenceOffset = 48;
+    final static int SampleCounterOffset = 56;
+    final static int HeaderLength = 64;
+    final static int SlotCounterOffset = 8;
+    final static int SlotDataOffset = 16;
+
+    /**
+     * Private Members...
+     */
+    private RandomAccessFile _file = null;
+    private FileChannel _channel = null;
+    private MappedByteBuffer _buffer = null;
+    private int _capacity;
+    private int _slotSize;
+    private long _writeSequence = 0;
+    private long _sampleCounter = 0;
+    private long _prevCounter = 0;
+
+    /**
+     * Static Members...
+     */
+    private static volatile int _fence = 0;
+
+    /**
+     * Creates (or overwrites) the ring file.
+     * @param capacity number of scans kept, e.g. UnicornStream.SamplingRateInHz * 10 for 10 s
+     */
+    public SharedMemoryRing(File file, int capacity) throws Exception
+    {
+        if(capacity <= 0)
+            throw new Exception("Invalid capacity.");
+
+        _capacity = capacity;
+        _slotSize = (SlotDataOffset + UnicornStream.NumberOfAcquiredChannels * 4 + 7) & ~7;
+
+        //map file
+        long length = HeaderLength + (long)_slotSize * capacity;
+        _file = new RandomAccessFile(file, "rw");
+        _file.setLength(length);
+        _channel = _file.getChannel();
+        _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        _buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        //write header (invalidate a previous header first)
+        _buffer.putInt(MagicOffset, 0);
+        _buffer.putInt(NumberOfChannelsOffset, UnicornStream.NumberOfAcquiredChannels);
+        _buffer.putInt(LayoutOffset, UnicornStream.NumberOfEEGChannels);
+        _buffer.putInt(LayoutOffset + 4, UnicornStream.NumberOfAccChannels);
+        _buffer.putInt(LayoutOffset + 8, UnicornStream.NumberOfGyrChannels);
+        _buffer.putInt(LayoutOffset + 12, UnicornStream.NumberOfBatteryLevelChannels);
+        _buffer.putInt(LayoutOffset + 16, UnicornStream.NumberOfCntChannels);
+        _buffer.putInt(LayoutOffset + 20, UnicornStream.NumberOfValidationIndicatorChannels);
+        _buffer.putInt(CapacityOffset, capacity);
+        _buffer.putInt(SlotSizeOffset, _slotSize);
+        _buffer.putLong(WriteSequenceOffset, 0);
+        _buffer.putLong(SampleCounterOffset, 0);
+        for(int i = 0; i < capacity; i++)
+            _buffer.putLong(HeaderLength + i * _slotSize, 0);
+
+        //publish header last so readers never see a partially initialized file
+        Fence();
+        _buffer.putInt(VersionOffset, Version);
+        _buffer.putInt(MagicOffset, Magic);
+    }
+
+    /**
+     * Writes a scan as returned by GetData and publishes it to readers.
+     * @param counter exact counter of the scan, e.g. UnicornStream.GetLastCounter. The 64-bit sample
+     *                counter is unwrapped from the difference of its lower 32 bits to the previous scan.
+     *                A backward jump or a repeated counter (e.g. a device restart) is a discontinuity
+     *                and advances the sample counter by 1, so it stays strictly increasing.
+     */
+    public void PutData(float[] scan, long counter) throws Exception
+    {
+        if(_buffer == null)
+            throw new Exception("Ring is closed.");
+        if(scan.length != UnicornStream.NumberOfAcquiredChannels)
+            throw new Exception("Invalid scan length.");
+
+        //unwrap counter (differences of 2^31 and more are backward jumps, not gaps)
+        if(_writeSequence == 0)
+        {
+            _sampleCounter = counter;
+        }
+        else
+        {
+            long counterDifference = (counter - _prevCounter) & 0xFFFFFFFFL;
+            _sampleCounter += (counterDifference > 0 && counterDifference <= Integer.MAX_VALUE) ? counterDifference : 1;
+        }
+        _prevCounter = counter;
+
+        //write slot guarded by its stamp
+        int slot = HeaderLength + (int)(_writeSequence % _capacity) * _slotSize;
+        _buffer.putLong(slot, 0);
+        Fence();
+        _buffer.putLong(slot + SlotCounterOffset, _sampleCounter);
+        for(int i = 0; i < scan.length; i++)
+            _buffer.putFloat(slot + SlotDataOffset + i * 4, scan[i]);
+        Fence();
+        _buffer.putLong(slot, _writeSequence + 1);
+
+        //publish
+        _writeSequence++;
+        _buffer.putLong(SampleCounterOffset, _sampleCounter);
+        Fence();
+        _buffer.putLong(WriteSequenceOffset, _writeSequence);
+    }
+
+    public long GetWriteSequence()
+    {
+        return _writeSequence;
+    }
+
+    /**
+     * Full fence: neither loads nor stores are reordered across a volatile store followed by a volatile load.
+     */
+    static void Fence()
+    {
+        _fence = 0;
+        int fence = _fence;
+    }
+
+    public void Close()
+    {
+        _buffer = null;
+
+        if (_channel != null)
+        {
+            try
+            {
+                _channel.close();
+            }
+            catch(Exception e)
+            {
+                //DO NOTHING
+            }
+            _channel = null;
+        }
+
+        if (_file != null)
+        {
+            try
+            {
+                _file.close();
+            }
+            catch(Exception e)
+            {
+                //DO NOTHING
+            }
+            _file = null;
+        }
+    }
+}
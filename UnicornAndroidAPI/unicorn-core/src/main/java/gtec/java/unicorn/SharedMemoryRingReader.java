@@ -0,0 +1,194 @@
+package gtec.java.unicorn;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads scans from a ring file written by SharedMemoryRing in another process.
+ * Reading polls the mapped header and does not involve any IPC call. A reader that falls
+ * more than the ring capacity behind skips ahead and counts the overwritten scans as lost.
+ * See SharedMemoryRing for the memory ordering guarantees.
+ */
+public class SharedMemoryRingReader {
+
+    /**
+     * Private Members...
+     */
+    private RandomAccessFile _file = null;
+    private FileChannel _channel = null;
+    private MappedByteBuffer _buffer = null;
+    private int _numberOfChannels;
+    private int[] _layout = null;
+    private int _capacity;
+    private int _slotSize;
+    private long _readSequence = 0;
+    private long _lastCounter = 0;
+    private long _numberOfScansLost = 0;
+
+    /**
+     * Opens the ring file. Reading starts with the next scan written.
+     */
+    public SharedMemoryRingReader(File file) throws Exception
+    {
+        //map file
+        _file = new RandomAccessFile(file, "r");
+        _channel = _file.getChannel();
+        if(_channel.size() < SharedMemoryRing.HeaderLength)
+        {
+            Close();
+            throw new Exception("Invalid ring file.");
+        }
+        _buffer = _channel.map(FileChannel.MapMode.READ_ONLY, 0, _channel.size());
+        _buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        //read header
+        if(_buffer.getInt(SharedMemoryRing.MagicOffset) != SharedMemoryRing.Magic || _buffer.getInt(SharedMemoryRing.VersionOffset) != SharedMemoryRing.Version)
+        {
+            Close();
+            throw new Exception("Invalid ring file.");
+        }
+        _numberOfChannels = _buffer.getInt(SharedMemoryRing.NumberOfChannelsOffset);
+        _layout = new int[SharedMemoryRing.LayoutLength];
+        for(int i = 0; i < _layout.length; i++)
+            _layout[i] = _buffer.getInt(SharedMemoryRing.LayoutOffset + i * 4);
+        _capacity = _buffer.getInt(SharedMemoryRing.CapacityOffset);
+        _slotSize = _buffer.getInt(SharedMemoryRing.SlotSizeOffset);
+        _readSequence = GetWriteSequence();
+    }
+
+    public int GetNumberOfChannels()
+    {
+        return _numberOfChannels;
+    }
+
+    /**
+     * Returns the number of eeg, acc, gyr, battery, counter and validation indicator channels.
+     */
+    public int[] GetChannelLayout()
+    {
+        return _layout;
+    }
+
+    public long GetWriteSequence()
+    {
+        long writeSequence = _buffer.getLong(SharedMemoryRing.WriteSequenceOffset);
+        SharedMemoryRing.Fence();
+        return writeSequence;
+    }
+
+    /**
+     * Returns the 64-bit sample counter of the last scan written.
+     */
+    public long GetSampleCounter()
+    {
+        GetWriteSequence();
+        return _buffer.getLong(SharedMemoryRing.SampleCounterOffset);
+    }
+
+    /**
+     * Returns the 64-bit sample counter of the scan last returned by GetData.
+     */
+    public long GetLastCounter()
+    {
+        return _lastCounter;
+    }
+
+    public long GetNumberOfScansLost()
+    {
+        return _numberOfScansLost;
+    }
+
+    /**
+     * Returns the number of scans written but not read yet.
+     */
+    public long GetNumberOfScansAvailable()
+    {
+        return GetWriteSequence() - _readSequence;
+    }
+
+    /**
+     * Copies the next scan into the given array, waiting at most timeoutMs for it.
+     * @return false if no scan was written within the timeout
+     */
+    public boolean GetData(float[] scan, int timeoutMs) throws Exception
+    {
+        if(_buffer == null)
+            throw new Exception("Reader is closed.");
+        if(scan.length < _numberOfChannels)
+            throw new Exception("Invalid scan length.");
+
+        long start = System.currentTimeMillis();
+        while(true)
+        {
+            long writeSequence = GetWriteSequence();
+            if(writeSequence > _readSequence)
+            {
+                //skip scans that were already overwritten
+                if(writeSequence - _readSequence > _capacity)
+                {
+                    _numberOfScansLost += writeSequence - _capacity - _readSequence;
+                    _readSequence = writeSequence - _capacity;
+                }
+
+                //copy slot and check that it was not overwritten meanwhile
+                int slot = SharedMemoryRing.HeaderLength + (int)(_readSequence % _capacity) * _slotSize;
+                long stamp = _buffer.getLong(slot);
+                SharedMemoryRing.Fence();
+                long counter = _buffer.getLong(slot + SharedMemoryRing.SlotCounterOffset);
+                for(int i = 0; i < _numberOfChannels; i++)
+                    scan[i] = _buffer.getFloat(slot + SharedMemoryRing.SlotDataOffset + i * 4);
+                SharedMemoryRing.Fence();
+                boolean valid = stamp == _readSequence + 1 && _buffer.getLong(slot) == stamp;
+
+                _readSequence++;
+                if(valid)
+                {
+                    _lastCounter = counter;
+                    return true;
+                }
+                _numberOfScansLost++;
+                continue;
+            }
+
+            if(System.currentTimeMillis() - start >= timeoutMs)
+                return false;
+
+            //sleep 1ms if data is not available yet
+            Thread.sleep(1);
+        }
+    }
+
+    public void Close()
+    {
+        _buffer = null;
+
+        if (_channel != null)
+        {
+            try
+            {
+                _channel.close();
+            }
+            catch(Exception e)
+            {
+                //DO NOTHING
+            }
+            _channel = null;
+        }
+
+        if (_file != null)
+        {
+            try
+            {
+                _file.close();
+            }
+            catch(Exception e)
+            {
+                //DO NOTHING
+            }
+            _file = null;
+        }
+    }
+}
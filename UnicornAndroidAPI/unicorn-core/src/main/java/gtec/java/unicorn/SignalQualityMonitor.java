@@ -0,0 +1,268 @@
+package gtec.java.unicorn;
+
+/**
+ * Incremental signal-quality monitor for the EEG channels of the acquisition stream.
+ * Statistics are accumulated per scan and published once per update interval as a
+ * per-channel quality vector. All buffers are allocated in the constructor.
+ */
+public class SignalQualityMonitor {
+
+    /**
+     * Listener receiving quality reports. The report is reused and only valid during the call.
+     */
+    public interface QualityListener
+    {
+        void OnQuality(SignalQuality quality);
+    }
+
+    public static class SignalQuality
+    {
+        private float[] _rms = new float[UnicornStream.NumberOfEEGChannels];
+        private float[] _variance = new float[UnicornStream.NumberOfEEGChannels];
+        private float[] _lineNoisePower = new float[UnicornStream.NumberOfEEGChannels];
+        private boolean[] _flatLine = new boolean[UnicornStream.NumberOfEEGChannels];
+        private boolean[] _saturated = new boolean[UnicornStream.NumberOfEEGChannels];
+        private float _motionLevel;
+        private float _angularRate;
+        private float _interpolatedSampleRatio;
+
+        private SignalQuality()
+        {
+        }
+
+        /**
+         * Returns the RMS of each EEG channel in uV (including DC offset).
+         */
+        public float[] GetRms()
+        {
+            return _rms;
+        }
+
+        /**
+         * Returns the variance of each EEG channel in uV^2.
+         */
+        public float[] GetVariance()
+        {
+            return _variance;
+        }
+
+        /**
+         * Returns the mean power of the line frequency component of each EEG channel in uV^2.
+         */
+        public float[] GetLineNoisePower()
+        {
+            return _lineNoisePower;
+        }
+
+        public boolean[] IsFlatLine()
+        {
+            return _flatLine;
+        }
+
+        public boolean[] IsSaturated()
+        {
+            return _saturated;
+        }
+
+        /**
+         * Returns the standard deviation of the accelerometer magnitude in g.
+         */
+        public float GetMotionLevel()
+        {
+            return _motionLevel;
+        }
+
+        /**
+         * Returns the mean gyroscope magnitude in deg/s.
+         */
+        public float GetAngularRate()
+        {
+            return _angularRate;
+        }
+
+        /**
+         * Returns the ratio of samples marked as interpolated by the validation indicator.
+         */
+        public float GetInterpolatedSampleRatio()
+        {
+            return _interpolatedSampleRatio;
+        }
+    }
+
+    /**
+     * Public Members...
+     */
+    public final static float DefaultLineFrequencyInHz = 50.0f;
+    public final static float DefaultFlatLineThresholdInMicroVolts = 1.0f;
+    public final static float DefaultSaturationRatio = 0.99f;
+
+    /**
+     * Private Members...
+     */
+    private int _updateIntervalSamples;
+    private double _goertzelCoefficient;
+    private float _flatLineThreshold = DefaultFlatLineThresholdInMicroVolts;
+    private float _saturationThreshold = DefaultSaturationRatio * UnicornStream.EegFullScaleInMicroVolts;
+    private int _numberOfSamples = 0;
+    private double[] _sum = null;
+    private double[] _sumOfSquares = null;
+    private double[] _goertzelPrev = null;
+    private double[] _goertzelPrev2 = null;
+    private float[] _min = null;
+    private float[] _max = null;
+    private boolean[] _saturated = null;
+    private double _accSum = 0;
+    private double _accSumOfSquares = 0;
+    private double _gyrSum = 0;
+    private int _numberOfInterpolatedSamples = 0;
+    private SignalQuality _quality = null;
+    private QualityListener _listener = null;
+
+    public SignalQualityMonitor(int updateIntervalSamples) throws Exception
+    {
+        this(updateIntervalSamples, DefaultLineFrequencyInHz);
+    }
+
+    /**
+     * @param updateIntervalSamples number of scans per report, e.g. UnicornStream.SamplingRateInHz for one report per second
+     * @param lineFrequencyInHz power line frequency (50 or 60 Hz)
+     */
+    public SignalQualityMonitor(int updateIntervalSamples, float lineFrequencyInHz) throws Exception
+    {
+        if(updateIntervalSamples <= 0)
+            throw new Exception("Invalid update interval.");
+        if(lineFrequencyInHz <= 0 || lineFrequencyInHz >= UnicornStream.SamplingRateInHz / 2.0f)
+            throw new Exception("Invalid line frequency.");
+
+        _updateIntervalSamples = updateIntervalSamples;
+
+        //goertzel filter tuned to the nearest bin of the update interval
+        long bin = Math.round((double)updateIntervalSamples * lineFrequencyInHz / UnicornStream.SamplingRateInHz);
+        _goertzelCoefficient = 2.0 * Math.cos(2.0 * Math.PI * bin / updateIntervalSamples);
+
+        _sum = new double[UnicornStream.NumberOfEEGChannels];
+        _sumOfSquares = new double[UnicornStream.NumberOfEEGChannels];
+        _goertzelPrev = new double[UnicornStream.NumberOfEEGChannels];
+        _goertzelPrev2 = new double[UnicornStream.NumberOfEEGChannels];
+        _min = new float[UnicornStream.NumberOfEEGChannels];
+        _max = new float[UnicornStream.NumberOfEEGChannels];
+        _saturated = new boolean[UnicornStream.NumberOfEEGChannels];
+        _quality = new SignalQuality();
+        Reset();
+    }
+
+    public void SetQualityListener(QualityListener listener)
+    {
+        _listener = listener;
+    }
+
+    /**
+     * Sets the peak-to-peak amplitude per update interval below which a channel is considered flat.
+     */
+    public void SetFlatLineThreshold(float thresholdInMicroVolts)
+    {
+        _flatLineThreshold = thresholdInMicroVolts;
+    }
+
+    /**
+     * Sets the fraction of the 24-bit input range above which a sample is considered saturated.
+     */
+    public void SetSaturationRatio(float ratio)
+    {
+        _saturationThreshold = ratio * UnicornStream.EegFullScaleInMicroVolts;
+    }
+
+    /**
+     * Accumulates a scan as returned by GetData and publishes a report at the end of each update interval.
+     */
+    public void PutData(float[] scan)
+    {
+        //eeg
+        for(int i = 0; i < UnicornStream.NumberOfEEGChannels; i++)
+        {
+            float value = scan[i];
+            _sum[i] += value;
+            _sumOfSquares[i] += (double)value * value;
+
+            double goertzel = value + _goertzelCoefficient * _goertzelPrev[i] - _goertzelPrev2[i];
+            _goertzelPrev2[i] = _goertzelPrev[i];
+            _goertzelPrev[i] = goertzel;
+
+            if(value < _min[i])
+                _min[i] = value;
+            if(value > _max[i])
+                _max[i] = value;
+            if(value >= _saturationThreshold || value <= -_saturationThreshold)
+                _saturated[i] = true;
+        }
+
+        //accelerometer
+        float accX = scan[UnicornStream.NumberOfEEGChannels];
+        float accY = scan[UnicornStream.NumberOfEEGChannels + 1];
+        float accZ = scan[UnicornStream.NumberOfEEGChannels + 2];
+        double accMagnitude = Math.sqrt(accX * accX + accY * accY + accZ * accZ);
+        _accSum += accMagnitude;
+        _accSumOfSquares += accMagnitude * accMagnitude;
+
+        //gyroscope
+        float gyrX = scan[UnicornStream.NumberOfEEGChannels + UnicornStream.NumberOfAccChannels];
+        float gyrY = scan[UnicornStream.NumberOfEEGChannels + UnicornStream.NumberOfAccChannels + 1];
+        float gyrZ = scan[UnicornStream.NumberOfEEGChannels + UnicornStream.NumberOfAccChannels + 2];
+        _gyrSum += Math.sqrt(gyrX * gyrX + gyrY * gyrY + gyrZ * gyrZ);
+
+        //validation indicator
+        if(scan[UnicornStream.ValidationIndicatorChannelIndex] == 0)
+            _numberOfInterpolatedSamples++;
+
+        _numberOfSamples++;
+        if(_numberOfSamples == _updateIntervalSamples)
+        {
+            Publish();
+            Reset();
+        }
+    }
+
+    private void Publish()
+    {
+        int n = _numberOfSamples;
+        for(int i = 0; i < UnicornStream.NumberOfEEGChannels; i++)
+        {
+            double mean = _sum[i] / n;
+            double meanSquare = _sumOfSquares[i] / n;
+            double goertzelPower = _goertzelPrev[i] * _goertzelPrev[i] + _goertzelPrev2[i] * _goertzelPrev2[i] - _goertzelCoefficient * _goertzelPrev[i] * _goertzelPrev2[i];
+
+            _quality._rms[i] = (float)Math.sqrt(meanSquare);
+            _quality._variance[i] = (float)Math.max(0, meanSquare - mean * mean);
+            _quality._lineNoisePower[i] = (float)(2.0 * goertzelPower / ((double)n * n));
+            _quality._flatLine[i] = (_max[i] - _min[i]) < _flatLineThreshold;
+            _quality._saturated[i] = _saturated[i];
+        }
+
+        double accMean = _accSum / n;
+        _quality._motionLevel = (float)Math.sqrt(Math.max(0, _accSumOfSquares / n - accMean * accMean));
+        _quality._angularRate = (float)(_gyrSum / n);
+        _quality._interpolatedSampleRatio = (float)_numberOfInterpolatedSamples / n;
+
+        if(_listener != null)
+            _listener.OnQuality(_quality);
+    }
+
+    private void Reset()
+    {
+        for(int i = 0; i < UnicornStream.NumberOfEEGChannels; i++)
+        {
+            _sum[i] = 0;
+            _sumOfSquares[i] = 0;
+            _goertzelPrev[i] = 0;
+            _goertzelPrev2[i] = 0;
+            _min[i] = Float.MAX_VALUE;
+            _max[i] = -Float.MAX_VALUE;
+            _saturated[i] = false;
+        }
+        _accSum = 0;
+        _accSumOfSquares = 0;
+        _gyrSum = 0;
+        _numberOfInterpolatedSamples = 0;
+        _numberOfSamples = 0;
+    }
+}
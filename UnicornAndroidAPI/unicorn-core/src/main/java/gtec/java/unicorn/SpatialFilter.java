@@ -0,0 +1,258 @@
+package gtec.java.unicorn;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Applies an M x 8 spatial filter matrix to the EEG channels, e.g. common average reference,
+ * small Laplacians or learned projections (CSP, ICA unmixing). Blocks are processed channel-major
+ * in cache-sized chunks. The matrix can be swapped at any time; the new matrix takes effect with
+ * the next call, so output buffers are sized for the maximum number of outputs and Apply returns
+ * the number of rows it wrote. Apply does not allocate.
+ *
+ * Unicorn electrode order: Fz, C3, Cz, C4, Pz, PO7, Oz, PO8.
+ */
+public class SpatialFilter {
+
+    /**
+     * Public Members...
+     */
+    public final static int NumberOfInputChannels = UnicornStream.NumberOfEEGChannels;
+
+    /**
+     * Constant Members...
+     */
+    private final static int BlockSize = 64;
+
+    /**
+     * Private Members...
+     */
+    private int _maxNumberOfOutputs;
+    private float[] _matrix = null;
+    private int _numberOfOutputs = 0;
+    private float[] _pendingMatrix = null;
+    private int _pendingNumberOfOutputs = 0;
+    private boolean _matrixPending = false;
+    private ReentrantLock _lock;
+
+    /**
+     * @param matrix initial filter matrix as [output][input channel]
+     * @param maxNumberOfOutputs maximum number of rows of any matrix set later
+     */
+    public SpatialFilter(float[][] matrix, int maxNumberOfOutputs) throws Exception
+    {
+        if(maxNumberOfOutputs <= 0)
+            throw new Exception("Invalid number of outputs.");
+
+        _lock = new ReentrantLock();
+        _maxNumberOfOutputs = maxNumberOfOutputs;
+        _matrix = new float[maxNumberOfOutputs * NumberOfInputChannels];
+        _pendingMatrix = new float[maxNumberOfOutputs * NumberOfInputChannels];
+        SetMatrix(matrix);
+    }
+
+    public SpatialFilter(float[][] matrix) throws Exception
+    {
+        this(matrix, matrix.length);
+    }
+
+    /**
+     * Replaces the filter matrix. The new matrix is used from the next call to Apply on.
+     */
+    public void SetMatrix(float[][] matrix) throws Exception
+    {
+        if(matrix.length == 0 || matrix.length > _maxNumberOfOutputs)
+            throw new Exception("Invalid number of outputs.");
+        for(float[] row : matrix)
+        {
+            if(row.length != NumberOfInputChannels)
+                throw new Exception("Invalid number of input channels.");
+        }
+
+        try
+        {
+            _lock.lock();
+
+            for(int i = 0; i < matrix.length; i++)
+                System.arraycopy(matrix[i], 0, _pendingMatrix, i * NumberOfInputChannels, NumberOfInputChannels);
+            _pendingNumberOfOutputs = matrix.length;
+            _matrixPending = true;
+
+            _lock.unlock();
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    public int GetMaxNumberOfOutputs()
+    {
+        return _maxNumberOfOutputs;
+    }
+
+    /**
+     * Returns the number of rows of the matrix that will be applied next. A concurrent SetMatrix can
+     * change it before Apply runs; use the value returned by Apply for the data it wrote.
+     */
+    public int GetNumberOfOutputs()
+    {
+        try
+        {
+            _lock.lock();
+
+            int numberOfOutputs = _matrixPending ? _pendingNumberOfOutputs : _numberOfOutputs;
+
+            _lock.unlock();
+            return numberOfOutputs;
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Filters a block of scans.
+     * @param input EEG data as [channel][sample] with at least 8 channels
+     * @param output filtered data as [output][sample] with GetMaxNumberOfOutputs rows; must not be the input array
+     * @param offset first sample in input and output
+     * @param numberOfScans number of samples to filter
+     * @return number of output rows written
+     */
+    public int Apply(float[][] input, float[][] output, int offset, int numberOfScans)
+    {
+        SwapPendingMatrix();
+
+        float[] matrix = _matrix;
+        int numberOfOutputs = _numberOfOutputs;
+        for(int blockStart = offset; blockStart < offset + numberOfScans; blockStart += BlockSize)
+        {
+            int blockEnd = Math.min(blockStart + BlockSize, offset + numberOfScans);
+            for(int m = 0; m < numberOfOutputs; m++)
+            {
+                float[] out = output[m];
+                for(int t = blockStart; t < blockEnd; t++)
+                    out[t] = 0;
+
+                for(int c = 0; c < NumberOfInputChannels; c++)
+                {
+                    float weight = matrix[m * NumberOfInputChannels + c];
+                    if(weight == 0)
+                        continue;
+
+                    float[] in = input[c];
+                    for(int t = blockStart; t < blockEnd; t++)
+                        out[t] += weight * in[t];
+                }
+            }
+        }
+        return numberOfOutputs;
+    }
+
+    /**
+     * Filters the EEG channels of a single scan as returned by GetData.
+     * @param output filtered values with GetMaxNumberOfOutputs elements
+     * @return number of output values written
+     */
+    public int Apply(float[] scan, float[] output)
+    {
+        SwapPendingMatrix();
+
+        float[] matrix = _matrix;
+        int numberOfOutputs = _numberOfOutputs;
+        for(int m = 0; m < numberOfOutputs; m++)
+        {
+            float value = 0;
+            for(int c = 0; c < NumberOfInputChannels; c++)
+                value += matrix[m * NumberOfInputChannels + c] * scan[c];
+            output[m] = value;
+        }
+        return numberOfOutputs;
+    }
+
+    public static float[][] Identity()
+    {
+        float[][] matrix = new float[NumberOfInputChannels][NumberOfInputChannels];
+        for(int i = 0; i < NumberOfInputChannels; i++)
+            matrix[i][i] = 1;
+        return matrix;
+    }
+
+    /**
+     * Common average reference: each channel minus the mean of all channels.
+     */
+    public static float[][] CommonAverageReference()
+    {
+        float[][] matrix = Identity();
+        for(int i = 0; i < NumberOfInputChannels; i++)
+        {
+            for(int j = 0; j < NumberOfInputChannels; j++)
+                matrix[i][j] -= 1.0f / NumberOfInputChannels;
+        }
+        return matrix;
+    }
+
+    /**
+     * Small Laplacian: each center channel minus the mean of its neighbours.
+     * E.g. centers {2} and neighbours {{0, 1, 3, 4}} for Cz referenced to Fz, C3, C4 and Pz.
+     */
+    public static float[][] Laplacian(int[] centers, int[][] neighbours) throws Exception
+    {
+        if(centers.length != neighbours.length)
+            throw new Exception("Each center needs a list of neighbours.");
+
+        float[][] matrix = new float[centers.length][NumberOfInputChannels];
+        for(int i = 0; i < centers.length; i++)
+        {
+            if(neighbours[i].length == 0)
+                throw new Exception("Each center needs at least one neighbour.");
+            if(centers[i] < 0 || centers[i] >= NumberOfInputChannels)
+                throw new Exception(String.format("Invalid center channel %d.", centers[i]));
+
+            //neighbours must be distinct channels other than the center
+            boolean[] used = new boolean[NumberOfInputChannels];
+            used[centers[i]] = true;
+            for(int neighbour : neighbours[i])
+            {
+                if(neighbour < 0 || neighbour >= NumberOfInputChannels)
+                    throw new Exception(String.format("Invalid neighbour channel %d.", neighbour));
+                if(neighbour == centers[i])
+                    throw new Exception(String.format("Channel %d cannot be its own neighbour.", neighbour));
+                if(used[neighbour])
+                    throw new Exception(String.format("Neighbour channel %d is listed twice.", neighbour));
+                used[neighbour] = true;
+            }
+
+            matrix[i][centers[i]] = 1;
+            for(int neighbour : neighbours[i])
+                matrix[i][neighbour] -= 1.0f / neighbours[i].length;
+        }
+        return matrix;
+    }
+
+    private void SwapPendingMatrix()
+    {
+        try
+        {
+            _lock.lock();
+
+            if(_matrixPending)
+            {
+                float[] matrix = _matrix;
+                _matrix = _pendingMatrix;
+                _pendingMatrix = matrix;
+                _numberOfOutputs = _pendingNumberOfOutputs;
+                _matrixPending = false;
+            }
+
+            _lock.unlock();
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package gtec.java.unicorn;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Managed acquisition session on top of a Unicorn device or any stream that supports Reconnect.
+ * Stalls are detected with a read-inactivity watchdog. The session then reconnects the device,
+ * restarts the acquisition and continues the same logical stream. Samples lost during the outage
+ * are delivered with validation indicator 0 and reported through the gap listener.
+ */
+public class UnicornSession {
+
+    /**
+     * Listener notified after a connection loss was recovered.
+     */
+    public interface GapListener
+    {
+        void OnGap(long firstLostSample, int numberOfSamplesLost, long recoveryTimeMs);
+    }
+
+    /**
+     * Public Members...
+     */
+    public final static int DefaultWatchdogTimeoutMs = 500;
+    public final static int DefaultMaxReconnectAttempts = 10;
+    public final static int DefaultReconnectDelayMs = 500;
+
+    /**
+     * Constant Members...
+     */
+    private final static int StopPollIntervalMs = 10;
+
+    /**
+     * Private Members...
+     */
+    private UnicornStream _unicorn = null;
+    private GapListener _gapListener = null;
+    private int _maxReconnectAttempts = DefaultMaxReconnectAttempts;
+    private int _reconnectDelayMs = DefaultReconnectDelayMs;
+    private boolean _acquisitionRunning = false;
+    private volatile boolean _stopRequested = false;
+    private boolean _recovering = false;
+    private boolean _firstScan = true;
+    private float[] _prevScan = null;
+    private float[] _resumeScan = null;
+    private int _pendingFillScans = 0;
+    private long _prevCounter = 0;
+    private long _prevDeviceCounter = 0;
+    private long _prevScanTimestamp = 0;
+    private long _lastRecoveryTimeMs = 0;
+    private int _numberOfRecoveries = 0;
+    private long _numberOfSamplesLost = 0;
+    private ReentrantLock _lock;
+
+    public UnicornSession(UnicornStream unicorn)
+    {
+        _lock = new ReentrantLock();
+        _unicorn = unicorn;
+        _unicorn.SetAcquisitionTimeout(DefaultWatchdogTimeoutMs);
+        _prevScan = new float[UnicornStream.NumberOfAcquiredChannels];
+    }
+
+    public void SetGapListener(GapListener listener)
+    {
+        _gapListener = listener;
+    }
+
+    /**
+     * Sets the time without a complete scan after which the connection is considered lost.
+     */
+    public void SetWatchdogTimeout(int timeoutMs)
+    {
+        _unicorn.SetAcquisitionTimeout(timeoutMs);
+    }
+
+    /**
+     * Sets how often a reconnect is attempted before GetData fails. Negative values retry forever.
+     */
+    public void SetMaxReconnectAttempts(int maxReconnectAttempts)
+    {
+        _maxReconnectAttempts = maxReconnectAttempts;
+    }
+
+    public void SetReconnectDelay(int delayMs)
+    {
+        _reconnectDelayMs = delayMs;
+    }
+
+    public long GetLastRecoveryTimeMs()
+    {
+        return _lastRecoveryTimeMs;
+    }
+
+    public int GetNumberOfRecoveries()
+    {
+        return _numberOfRecoveries;
+    }
+
+    public long GetNumberOfSamplesLost()
+    {
+        return _numberOfSamplesLost;
+    }
+
+    /**
+     * Returns the exact logical sample counter of the scan last returned by GetData.
+     * It continues across the 32-bit device counter wrap and reconnects (see UnicornStream.CounterChannelIndex).
+     */
+    public long GetLastCounter()
+    {
+        return _prevCounter;
+    }
+
+    public void StartAcquisition() throws Exception
+    {
+        try
+        {
+            _lock.lock();
+
+            if(_recovering)
+                throw new Exception("Recovery in progress.");
+
+            _unicorn.StartAcquisition();
+            _acquisitionRunning = true;
+            _stopRequested = false;
+
+            //no gap accounting before the first scan of this acquisition
+            _firstScan = true;
+            _resumeScan = null;
+            _pendingFillScans = 0;
+            _prevCounter = 0;
+            _prevDeviceCounter = 0;
+            _prevScanTimestamp = 0;
+
+            _lock.unlock();
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the acquisition. Does not wait for a recovery in progress; the recovery stops the device
+     * after its current reconnect attempt. Closing the device aborts a blocking reconnect attempt.
+     */
+    public void StopAcquisition() throws Exception
+    {
+        _stopRequested = true;
+
+        try
+        {
+            _lock.lock();
+
+            if(!_acquisitionRunning)
+                throw new Exception("Start acquisition first.");
+
+            _acquisitionRunning = false;
+
+            //the recovering thread owns the device until it took the lock again
+            if(!_recovering && _unicorn.IsAcquisitionRunning())
+                _unicorn.StopAcquisition();
+
+            _lock.unlock();
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    public float[] GetData() throws Exception
+    {
+        try
+        {
+            _lock.lock();
+
+            if(!_acquisitionRunning)
+                throw new Exception("Acquisition not running");
+
+            if(_recovering)
+                throw new Exception("Recovery in progress.");
+
+            float[] scan = null;
+            while(scan == null)
+            {
+                if (_pendingFillScans > 0)
+                {
+                    //deliver samples lost during the outage with validation indicator 0
+                    _pendingFillScans--;
+                    scan = new float[UnicornStream.NumberOfAcquiredChannels];
+                    System.arraycopy(_prevScan, 0, scan, 0, scan.length);
+                    scan[UnicornStream.ValidationIndicatorChannelIndex] = 0;
+                    _prevCounter++;
+                }
+                else if (_resumeScan != null)
+                {
+                    //deliver first scan received after the reconnect
+                    scan = _resumeScan;
+                    _resumeScan = null;
+                    _prevCounter++;
+                }
+                else
+                {
+                    try
+                    {
+                        scan = _unicorn.GetData();
+                    }
+                    catch(Exception e)
+                    {
+                        //recovery provides the resume scan and fill scans for the next iteration
+                        Recover(e);
+                        continue;
+                    }
+
+                    //continue the logical counter on the exact 32-bit device counter (handles the wrap)
+                    long deviceCounter = _unicorn.GetLastCounter();
+                    long counterDifference = (deviceCounter - _prevDeviceCounter) & 0xFFFFFFFFL;
+                    if(_firstScan)
+                    {
+                        _prevCounter = deviceCounter;
+                        _firstScan = false;
+                    }
+                    else
+                    {
+                        _prevCounter += (counterDifference > 0 && counterDifference <= Integer.MAX_VALUE) ? counterDifference : 1;
+                    }
+                    _prevDeviceCounter = deviceCounter;
+                    _prevScanTimestamp = System.currentTimeMillis();
+                }
+            }
+
+            //store last scan
+            scan[UnicornStream.CounterChannelIndex] = _prevCounter;
+            System.arraycopy(scan, 0, _prevScan, 0, scan.length);
+
+            _lock.unlock();
+
+            return scan;
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Reconnects and restarts the acquisition until the first scan is received. Must be called with
+     * the lock held once; the lock is released during the attempts so StopAcquisition does not block.
+     */
+    private void Recover(Exception cause) throws Exception
+    {
+        float[] scan = null;
+        boolean gaveUp = false;
+        _recovering = true;
+        _lock.unlock();
+        try
+        {
+            int attempt = 0;
+            while(scan == null && !_stopRequested)
+            {
+                try
+                {
+                    _unicorn.Reconnect();
+                    _unicorn.StartAcquisition();
+                    scan = _unicorn.GetData();
+                }
+                catch(Exception e)
+                {
+                    attempt++;
+                    if(_maxReconnectAttempts >= 0 && attempt >= _maxReconnectAttempts)
+                    {
+                        gaveUp = true;
+                        break;
+                    }
+                    for(int waitedMs = 0; waitedMs < _reconnectDelayMs && !_stopRequested; waitedMs += StopPollIntervalMs)
+                        Thread.sleep(Math.min(StopPollIntervalMs, _reconnectDelayMs - waitedMs));
+                }
+            }
+        }
+        finally
+        {
+            _lock.lock();
+            _recovering = false;
+        }
+
+        if(_stopRequested || !_acquisitionRunning)
+        {
+            //StopAcquisition was called during the recovery and left the device to this thread
+            _acquisitionRunning = false;
+            try
+            {
+                if(_unicorn.IsAcquisitionRunning())
+                    _unicorn.StopAcquisition();
+            }
+            catch(Exception e)
+            {
+                //device may be closed already
+            }
+            throw new Exception(String.format("Acquisition stopped during recovery. %s", cause.getMessage()));
+        }
+        if(gaveUp)
+        {
+            _acquisitionRunning = false;
+            throw new Exception(String.format("Could not recover acquisition. %s", cause.getMessage()));
+        }
+
+        long timestamp = System.currentTimeMillis();
+        long deviceCounter = _unicorn.GetLastCounter();
+
+        //no gap accounting if the connection was lost before the first scan
+        if(_firstScan)
+        {
+            _prevCounter = deviceCounter - 1;
+            _prevDeviceCounter = deviceCounter;
+            _prevScanTimestamp = timestamp;
+            _firstScan = false;
+            _resumeScan = scan;
+            return;
+        }
+        long recoveryTimeMs = timestamp - _prevScanTimestamp;
+
+        //account for lost samples (exact if the device counter continued consistently with the outage duration, estimated from the duration otherwise)
+        long counterDifference = (deviceCounter - _prevDeviceCounter) & 0xFFFFFFFFL;
+        long estimatedSamplesLost = Math.min(Integer.MAX_VALUE, Math.max(0, Math.round(recoveryTimeMs * UnicornStream.SamplingRateInHz / 1000.0) - 1));
+        long numberOfSamplesLost;
+        if(counterDifference > 0 && counterDifference - 1 <= estimatedSamplesLost + UnicornStream.SamplingRateInHz)
+            numberOfSamplesLost = counterDifference - 1;
+        else
+            numberOfSamplesLost = estimatedSamplesLost;
+
+        //the logical counter continues after the lost samples
+        long firstLostSample = _prevCounter + 1;
+        _prevDeviceCounter = deviceCounter;
+        _prevScanTimestamp = timestamp;
+
+        _resumeScan = scan;
+        _pendingFillScans = (int)numberOfSamplesLost;
+        _lastRecoveryTimeMs = recoveryTimeMs;
+        _numberOfRecoveries++;
+        _numberOfSamplesLost += numberOfSamplesLost;
+
+        if(_gapListener != null)
+            _gapListener.OnGap(firstLostSample, (int)numberOfSamplesLost, recoveryTimeMs);
+    }
+}
@@ -0,0 +1,497 @@
+package gtec.java.unicorn;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Unicorn acquisition over an already opened pair of streams, e.g. a Bluetooth socket,
+ * frames relayed from another host or a simulated device. Has no Android dependencies.
+ */
+public class UnicornStream {
+
+    /**
+     * Public Members...
+     */
+    public final static int NumberOfAcquiredChannels = 17;
+    public final static int SamplingRateInHz = 250;
+    public final static byte NumberOfEEGChannels = 8;
+    public final static byte NumberOfAccChannels = 3;
+    public final static byte NumberOfGyrChannels = 3;
+    public final static byte NumberOfCntChannels = 1;
+    public final static byte NumberOfBatteryLevelChannels = 1;
+    public final static byte NumberOfValidationIndicatorChannels = 1;
+
+    /**
+     * Index of the sample counter in a scan. The counter channel is a float and not exact beyond
+     * 2^24 samples (about 18.6 h); exact counters are returned by GetLastCounter.
+     */
+    public final static int CounterChannelIndex = NumberOfEEGChannels + NumberOfAccChannels + NumberOfGyrChannels + NumberOfBatteryLevelChannels;
+    public final static int ValidationIndicatorChannelIndex = CounterChannelIndex + NumberOfCntChannels;
+    public final static float EegFullScaleInMicroVolts = 0x7FFFFF * FrameDecoder.EegScale;
+
+    /**
+     * Constant Members...
+     */
+    private final static byte CmdStartAcquisition = 0x61;
+    private final static byte[] CmdStartAcquisitionAck = { 0, 0, 0 };
+    private final static byte CmdStopAcquisition = 0x63;
+    private final static byte[] CmdStopAcquisitionAck = { 0, 0, 0 };
+    private final static int WriteTimeoutMs = 1000;
+    private final static int DefaultAcquisitionTimeoutMs = 1000;
+    private final static int CommandTimeoutMs = 1000;
+    private final static short[] CrcTable = CreateCrcTable();
+    private final static byte[] CmdStartAcquisitionMessage = FormMessage(CmdStartAcquisition);
+    private final static byte[] CmdStopAcquisitionMessage = FormMessage(CmdStopAcquisition);
+
+    /**
+     * Protected Members...
+     */
+    protected ReentrantLock _lock;
+
+    /**
+     * Private Members...
+     */
+    private OutputStream _outputStream = null;
+    private InputStream _inputStream = null;
+    private CommandChannel _commandChannel = null;
+    private FrameDecoder _decoder = null;
+    private byte[] _readBuffer = null;
+    private boolean _acquisitionRunning = false;
+    private int _acquisitionTimeoutMs = DefaultAcquisitionTimeoutMs;
+
+    public UnicornStream(InputStream inputStream, OutputStream outputStream)
+    {
+        this();
+        SetStreams(inputStream, outputStream);
+    }
+
+    /**
+     * Creates an unconnected instance; streams are set later with SetStreams.
+     */
+    protected UnicornStream()
+    {
+        //initialize lock object
+        _lock = new ReentrantLock();
+
+        _decoder = new FrameDecoder();
+        _readBuffer = new byte[SamplingRateInHz * NumberOfAcquiredChannels];
+        _acquisitionRunning = false;
+    }
+
+    protected void finalize() {
+        Close();
+    }
+
+    /**
+     * Closes the connection. Prefer this over relying on finalization, which may run hours later or never.
+     */
+    public void Close()
+    {
+        try
+        {
+            _lock.lock();
+
+            CloseStreams();
+
+            _lock.unlock();
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the maximum time GetData waits for a complete scan before it fails.
+     */
+    public void SetAcquisitionTimeout(int timeoutMs)
+    {
+        _acquisitionTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Uses new streams, e.g. after a reconnect. Acquisition is stopped afterwards and
+     * the first frame received does not trigger interpolation of lost samples.
+     */
+    protected void SetStreams(InputStream inputStream, OutputStream outputStream)
+    {
+        try
+        {
+            _lock.lock();
+
+            CloseStreams();
+            _inputStream = inputStream;
+            _outputStream = outputStream;
+            _commandChannel = new CommandChannel(outputStream);
+            _decoder.Clear();
+            _decoder.Resync();
+
+            _lock.unlock();
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    protected void CloseStreams()
+    {
+        _acquisitionRunning = false;
+
+        if (_commandChannel != null)
+        {
+            _commandChannel.Close();
+            _commandChannel = null;
+        }
+
+        if (_inputStream != null)
+        {
+            try
+            {
+                _inputStream.close();
+            }
+            catch(Exception e)
+            {
+                //DO NOTHING
+            }
+            _inputStream = null;
+        }
+
+        if (_outputStream != null)
+        {
+            try
+            {
+                _outputStream.close();
+            }
+            catch (Exception e)
+            {
+                //DO NOTHING
+            }
+            _outputStream = null;
+        }
+    }
+
+    /**
+     * Opens the connection again, e.g. after it dropped. Acquisition is stopped afterwards and has to be
+     * restarted with StartAcquisition. Streams that cannot reopen their connection throw; Unicorn overrides this.
+     */
+    public void Reconnect() throws Exception
+    {
+        throw new Exception("Reconnect is not supported by this stream.");
+    }
+
+    public void StartAcquisition() throws Exception
+    {
+        try
+        {
+            _lock.lock();
+
+            if(_acquisitionRunning)
+                throw  new Exception("Acquisition already running.");
+            if(_commandChannel == null)
+                throw new Exception("Initialize output first.");
+
+            //send start acquisition command (frames arriving together with the ack belong to the new acquisition)
+            _decoder.Clear();
+            _decoder.Resync();
+            _decoder.ExpectAck(CmdStartAcquisitionAck);
+            _commandChannel.Send(CmdStartAcquisitionMessage, CommandTimeoutMs);
+
+            //wait for ack (data following the ack is kept)
+            long start = System.currentTimeMillis();
+            while (!_decoder.IsAckReceived() && (System.currentTimeMillis()-start) < CommandTimeoutMs)
+            {
+                ReadData();
+                if(!_decoder.IsAckReceived())
+                    Thread.sleep(1);
+            }
+
+            if (!_decoder.IsAckReceived())
+            {
+                _decoder.CancelAck();
+                throw new RuntimeException("Could not start data acquisition. No acknowledge received.");
+            }
+
+            _acquisitionRunning = true;
+            _commandChannel.StartKeepAlive(WriteTimeoutMs);
+
+            _lock.unlock();
+        }
+        catch(Exception e) {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    public void StopAcquisition() throws Exception
+    {
+        try
+        {
+            _lock.lock();
+
+            if(!_acquisitionRunning)
+                throw new Exception("Start acquisition first.");
+            if(_commandChannel == null)
+                throw new Exception("Initialize output first.");
+
+            //send stop acquisition command
+            _decoder.ExpectAck(CmdStopAcquisitionAck);
+            _commandChannel.Send(CmdStopAcquisitionMessage, CommandTimeoutMs);
+
+            _lock.unlock();
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+
+        //wait for ack; the lock is released between reads so scans received meanwhile are still delivered by GetData
+        long start = System.currentTimeMillis();
+        boolean ackReceived = false;
+        while (!ackReceived && (System.currentTimeMillis()-start) < CommandTimeoutMs)
+        {
+            try
+            {
+                _lock.lock();
+
+                ReadData();
+                ackReceived = _decoder.IsAckReceived();
+
+                _lock.unlock();
+            }
+            catch(Exception e)
+            {
+                _lock.unlock();
+                throw e;
+            }
+
+            if(!ackReceived)
+                Thread.sleep(1);
+        }
+
+        try
+        {
+            _lock.lock();
+
+            _decoder.CancelAck();
+            _acquisitionRunning = false;
+            if(_commandChannel != null)
+                _commandChannel.StopKeepAlive();
+
+            _lock.unlock();
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+
+        if (!ackReceived)
+            throw new RuntimeException("Could not stop data acquisition. No acknowledge received.");
+    }
+
+    public float[] GetData() throws Exception
+    {
+        try
+        {
+            _lock.lock();
+
+            //check connection and device state (scans received before stop are still delivered)
+            if(!_acquisitionRunning && _decoder.GetNumberOfScansAvailable() == 0)
+                throw new Exception("Acquisition not running");
+            if(_inputStream == null)
+                throw new Exception("Initialize input stream first.");
+            if(_commandChannel == null)
+                throw new Exception("Initialize output first.");
+
+            //keep-alive messages are written by the command channel
+            Exception writeFailure = _commandChannel.GetWriteFailure();
+            if(writeFailure != null)
+                throw new Exception(String.format("Could not write keep-alive message. %s", writeFailure.getMessage()));
+
+            //try to acquire data
+            int acquisitionTimeoutMs = _acquisitionTimeoutMs;
+            long start = System.currentTimeMillis();
+
+            while (_decoder.GetNumberOfScansAvailable() == 0 && (System.currentTimeMillis()-start) < acquisitionTimeoutMs)
+            {
+                //read data
+                ReadData();
+
+                //sleep 1ms if data is not available yet
+                if(_decoder.GetNumberOfScansAvailable() == 0)
+                    Thread.sleep(1);
+            }
+
+            //check if acquisition timed out
+            if (_decoder.GetNumberOfScansAvailable() == 0)
+                throw new Exception("Could not read data.");
+
+            //get data from decoder
+            float[] dataOut = new float[NumberOfAcquiredChannels];
+            _decoder.GetData(dataOut);
+
+            _lock.unlock();
+
+            //return scan
+            return dataOut;
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    public boolean IsAcquisitionRunning()
+    {
+        try
+        {
+            _lock.lock();
+
+            boolean acquisitionRunning = _acquisitionRunning;
+
+            _lock.unlock();
+
+            return acquisitionRunning;
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the exact 32-bit device counter of the scan last returned by GetData (see CounterChannelIndex).
+     */
+    public long GetLastCounter()
+    {
+        try
+        {
+            _lock.lock();
+
+            long counter = _decoder.GetLastCounter();
+
+            _lock.unlock();
+
+            return counter;
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of decoded scans not yet returned by GetData, i.e. how far the consumer is behind.
+     */
+    public int GetNumberOfScansAvailable()
+    {
+        try
+        {
+            _lock.lock();
+
+            int numberOfScans = _decoder.GetNumberOfScansAvailable();
+
+            _lock.unlock();
+
+            return numberOfScans;
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of scans discarded because the consumer fell more than FrameDecoder.MaxBufferSizeInSeconds behind.
+     */
+    public long GetNumberOfScansOverflowed()
+    {
+        try
+        {
+            _lock.lock();
+
+            long numberOfScans = _decoder.GetNumberOfScansOverflowed();
+
+            _lock.unlock();
+
+            return numberOfScans;
+        }
+        catch(Exception e)
+        {
+            _lock.unlock();
+            throw e;
+        }
+    }
+
+    private static short[] CreateCrcTable()
+    {
+        //crc-16 ccitt (polynomial 0x1021) of each possible byte
+        short[] table = new short[256];
+        for (int i = 0; i < 256; i++)
+        {
+            int crcValue = i << 8;
+            for (int j = 0; j < 8; j++)
+            {
+                if ((crcValue & 0x8000) != 0)
+                    crcValue = (crcValue << 1) ^ 0x1021;
+                else
+                    crcValue = crcValue << 1;
+            }
+            table[i] = (short)crcValue;
+        }
+        return table;
+    }
+
+    static byte[] FormMessage(byte cmd)
+    {
+        //Shift cmd and payload in array
+        byte[] data = new byte[1];
+        data[0] = cmd;
+
+        //calculate crc
+        byte[] crc = GetCRC16_CCITT(data, 0, data.length);
+
+        //append crc to array and form message
+        byte[] message = new byte[data.length + 2];
+        System.arraycopy(data, 0, message, 0, data.length);
+        message[data.length] = crc[0];
+        message[data.length + 1] = crc[1];
+        return message;
+    }
+
+    static byte[] GetCRC16_CCITT(byte[] data, int arrayOffset, int dataSize)
+    {
+        int crcValue = 0;
+        byte[] crcBuffer = new byte[2];
+        for (int i = arrayOffset; i < arrayOffset + dataSize; i++)
+            crcValue = ((crcValue << 8) ^ CrcTable[((crcValue >> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        crcBuffer[0] = (byte)((crcValue >> 8));
+        crcBuffer[1] = (byte)(crcValue);
+        return crcBuffer;
+    }
+
+    private void ReadData() throws Exception
+    {
+        int numberOfBytesAvailable = _inputStream.available();
+        if (numberOfBytesAvailable > 0)
+        {
+            //read data
+            if (_readBuffer.length < numberOfBytesAvailable)
+                _readBuffer = new byte[numberOfBytesAvailable];
+            int bytesRead = _inputStream.read(_readBuffer, 0, numberOfBytesAvailable);
+
+            //decode
+            if (bytesRead > 0)
+                _decoder.PutData(_readBuffer, 0, bytesRead);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package gtec.java.unicorn;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class EpochExtractorTest {
+
+    @Test
+    public void EmitsEpochsBeyondFloatCounterPrecision() throws Exception
+    {
+        //counter channel values above 2^24 are rounded to even numbers and above 2^25 to multiples of 4
+        long firstCounter = (1L << 25) - 100;
+        List<Long> markers = new ArrayList<>();
+        EpochExtractor extractor = CreateExtractor(markers);
+
+        for(long counter = firstCounter; counter < firstCounter + 1000; counter++)
+        {
+            if(counter == firstCounter + 200)
+                extractor.AddMarkerAtSample(counter + 10, 1);
+            extractor.PutData(CreateScan(counter), 0);
+        }
+
+        assertEquals(0, extractor.GetNumberOfDroppedMarkers());
+        assertEquals(1, markers.size());
+        assertEquals(firstCounter + 210, (long)markers.get(0));
+    }
+
+    @Test
+    public void ContinuesCounterAcrossWrap() throws Exception
+    {
+        //first counter is exact as float, the epoch spans the wrap
+        long firstCounter = 0x100000000L - 512;
+        List<Long> markers = new ArrayList<>();
+        EpochExtractor extractor = CreateExtractor(markers);
+
+        for(long counter = firstCounter; counter < firstCounter + 1000; counter++)
+        {
+            if(counter == firstCounter + 450)
+                extractor.AddMarkerAtSample(counter + 40, 1);
+            extractor.PutData(CreateScan(counter & 0xFFFFFFFFL), 0);
+        }
+
+        assertEquals(0, extractor.GetNumberOfDroppedMarkers());
+        assertEquals(1, markers.size());
+    }
+
+    @Test
+    public void DropsEpochsSpanningDiscontinuity() throws Exception
+    {
+        List<Long> markers = new ArrayList<>();
+        EpochExtractor extractor = CreateExtractor(markers);
+        extractor.AddMarkerAtSample(100, 1);
+        for(long counter = 0; counter < 300; counter++)
+        {
+            long exactCounter = counter < 110 ? counter : counter + 5;
+            extractor.PutData(CreateScan(exactCounter), exactCounter, 0);
+        }
+
+        assertEquals(1, extractor.GetNumberOfDroppedMarkers());
+        assertEquals(0, markers.size());
+    }
+
+    @Test
+    public void EpochContainsWindowAcrossRingWrap() throws Exception
+    {
+        //window 430 to 579 wraps around the end of the 500 sample ring
+        EpochExtractor extractor = new EpochExtractor(UnicornStream.NumberOfEEGChannels, 50, 100, 500, 4);
+        List<float[][]> epochs = new ArrayList<>();
+        List<Integer> codes = new ArrayList<>();
+        SetRecorder(extractor, epochs, codes);
+        extractor.AddMarkerAtSample(480, 7);
+        for(long counter = 0; counter < 600; counter++)
+            extractor.PutData(CreateScan(counter), counter, 0);
+
+        assertEquals(1, epochs.size());
+        assertEquals(7, (int)codes.get(0));
+        float[][] data = epochs.get(0);
+        assertEquals(UnicornStream.NumberOfEEGChannels, data.length);
+        for(int channel = 0; channel < data.length; channel++)
+        {
+            assertEquals(150, data[channel].length);
+            for(int sample = 0; sample < 150; sample++)
+                assertEquals(GetValue(channel, 430 + sample), data[channel][sample], 0);
+        }
+    }
+
+    @Test
+    public void SubtractsPreStimulusMean() throws Exception
+    {
+        EpochExtractor extractor = new EpochExtractor(UnicornStream.NumberOfEEGChannels, 50, 100, 500, 4);
+        List<float[][]> epochs = new ArrayList<>();
+        SetRecorder(extractor, epochs, new ArrayList<Integer>());
+        extractor.SetBaselineCorrection(true);
+        extractor.AddMarkerAtSample(480, 1);
+        for(long counter = 0; counter < 600; counter++)
+            extractor.PutData(CreateScan(counter), counter, 0);
+
+        //pre-stimulus samples 430 to 479 have the mean 454.5 above the channel offset
+        assertEquals(1, epochs.size());
+        float[][] data = epochs.get(0);
+        for(int channel = 0; channel < data.length; channel++)
+        {
+            for(int sample = 0; sample < 150; sample++)
+                assertEquals(430 + sample - 454.5f, data[channel][sample], 1e-3);
+        }
+    }
+
+    @Test
+    public void MapsMarkerTimeToSample() throws Exception
+    {
+        List<Long> markers = new ArrayList<>();
+        EpochExtractor extractor = CreateExtractor(markers);
+        try
+        {
+            extractor.AddMarkerAtTime(0, 1);
+            fail("Marker accepted before data.");
+        }
+        catch(Exception e)
+        {
+            assertEquals("Put data first.", e.getMessage());
+        }
+
+        //scan 200 received at 10 s; 4 ms per sample
+        for(long counter = 0; counter <= 200; counter++)
+            extractor.PutData(CreateScan(counter), counter, 10000 - (200 - counter) * 4);
+        extractor.AddMarkerAtTime(10000 + 40, 1);
+        extractor.AddMarkerAtTime(10000 - 100, 2);
+        extractor.AddMarkerAtTime(10000 + 6, 3);
+        for(long counter = 201; counter < 400; counter++)
+            extractor.PutData(CreateScan(counter), counter, 10000 + (counter - 200) * 4);
+
+        assertEquals(3, markers.size());
+        assertEquals(175, (long)markers.get(0));
+        assertEquals(202, (long)markers.get(1));
+        assertEquals(210, (long)markers.get(2));
+    }
+
+    @Test
+    public void DropsMarkersBeyondMaxPendingMarkers() throws Exception
+    {
+        //at most 4 markers wait for their post-stimulus part
+        List<Long> markers = new ArrayList<>();
+        EpochExtractor extractor = CreateExtractor(markers);
+        extractor.PutData(CreateScan(0), 0, 0);
+        for(int i = 0; i < 5; i++)
+            extractor.AddMarkerAtSample(100 + 10 * i, i);
+        assertEquals(1, extractor.GetNumberOfDroppedMarkers());
+
+        //emitted epochs free their slots
+        for(long counter = 1; counter < 230; counter++)
+            extractor.PutData(CreateScan(counter), counter, 0);
+        assertEquals(4, markers.size());
+        assertEquals(130, (long)markers.get(3));
+        for(int i = 0; i < 4; i++)
+            extractor.AddMarkerAtSample(250 + 10 * i, i);
+        assertEquals(1, extractor.GetNumberOfDroppedMarkers());
+
+        //markers whose pre-stimulus part already left the ring are dropped as well
+        extractor.AddMarkerAtSample(229 - 500 + 50, 9);
+        assertEquals(2, extractor.GetNumberOfDroppedMarkers());
+    }
+
+    private static void SetRecorder(EpochExtractor extractor, final List<float[][]> epochs, final List<Integer> codes)
+    {
+        extractor.SetEpochListener(new EpochExtractor.EpochListener() {
+            @Override
+            public void OnEpoch(EpochExtractor.Epoch epoch)
+            {
+                //the epoch is reused
+                float[][] data = new float[epoch.GetData().length][];
+                for(int i = 0; i < data.length; i++)
+                    data[i] = epoch.GetData()[i].clone();
+                epochs.add(data);
+                codes.add(epoch.GetMarkerCode());
+            }
+        });
+    }
+
+    private static float GetValue(int channel, long counter)
+    {
+        return channel * 1000 + counter;
+    }
+
+    private static EpochExtractor CreateExtractor(final List<Long> markers) throws Exception
+    {
+        EpochExtractor extractor = new EpochExtractor(UnicornStream.NumberOfEEGChannels, 50, 100, 500, 4);
+        extractor.SetEpochListener(new EpochExtractor.EpochListener() {
+            @Override
+            public void OnEpoch(EpochExtractor.Epoch epoch)
+            {
+                markers.add(epoch.GetMarkerSample());
+            }
+        });
+        return extractor;
+    }
+
+    private static float[] CreateScan(long counter)
+    {
+        float[] scan = new float[UnicornStream.NumberOfAcquiredChannels];
+        for(int i = 0; i < UnicornStream.NumberOfEEGChannels; i++)
+            scan[i] = GetValue(i, counter);
+        scan[UnicornStream.CounterChannelIndex] = counter;
+        scan[UnicornStream.ValidationIndicatorChannelIndex] = 1;
+        return scan;
+    }
+}
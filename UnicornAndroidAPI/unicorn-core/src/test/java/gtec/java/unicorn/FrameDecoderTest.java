@@ -0,0 +1,333 @@
+package gtec.java.unicorn;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameDecoderTest {
+
+    private final static byte[] Ack = { 0, 0, 0 };
+
+    @Test
+    public void DecodesKnownFrame()
+    {
+        int[] eeg = { 1, -1, 0x7FFFFF, -0x800000, 0, 1000, -1000, 0x123456 };
+        short[] acc = { 4096, -4096, 0 };
+        short[] gyr = { 328, -328, 0 };
+        FrameDecoder decoder = new FrameDecoder();
+        Put(decoder, TestFrames.Create(0x12345678L, eeg, acc, gyr, 0x0F));
+
+        float[] scan = new float[UnicornStream.NumberOfAcquiredChannels];
+        assertTrue(decoder.GetData(scan));
+        for(int i = 0; i < eeg.length; i++)
+            assertEquals(eeg[i] * FrameDecoder.EegScale, scan[i], 0);
+        assertEquals(1, scan[8], 0);
+        assertEquals(-1, scan[9], 0);
+        assertEquals(0, scan[10], 0);
+        assertEquals(10, scan[11], 1e-5);
+        assertEquals(-10, scan[12], 1e-5);
+        assertEquals(0, scan[13], 0);
+        assertEquals((15 * (1.2f / 16.0f) + 3.0f) * (100.0f / 4.2f), scan[14], 1e-4);
+        assertEquals((float)0x12345678L, scan[UnicornStream.CounterChannelIndex], 0);
+        assertEquals(1, scan[UnicornStream.ValidationIndicatorChannelIndex], 0);
+        assertEquals(0x12345678L, decoder.GetLastCounter());
+        assertFalse(decoder.GetData(scan));
+    }
+
+    @Test
+    public void DecodesFramesSplitAcrossWrites()
+    {
+        byte[] frames = TestFrames.CreateSequence(100, 3);
+        FrameDecoder decoder = new FrameDecoder();
+        for(int i = 0; i < frames.length; i++)
+        {
+            decoder.PutData(frames, i, 1);
+            assertEquals((i + 1) / TestFrames.FrameLength, decoder.GetNumberOfScansAvailable());
+        }
+        AssertCounters(decoder, 100, 101, 102);
+        assertEquals(0, decoder.GetNumberOfInvalidFrames());
+    }
+
+    @Test
+    public void DiscardsFrameWithCorruptHeader()
+    {
+        byte[] frames = TestFrames.CreateSequence(0, 4);
+        frames[TestFrames.FrameLength + 1] = 0x55;
+        FrameDecoder decoder = new FrameDecoder();
+        Put(decoder, frames);
+
+        //the lost frame is interpolated once the next frame confirms the gap
+        assertEquals(1, decoder.GetNumberOfInvalidFrames());
+        AssertCounters(decoder, 0, 1, 2, 3);
+        AssertValidation(new FrameDecoder(), frames, 1, 0, 1, 1);
+    }
+
+    @Test
+    public void DiscardsFrameWithCorruptFooter()
+    {
+        byte[] frames = TestFrames.CreateSequence(0, 4);
+        frames[2 * TestFrames.FrameLength - 1] = 0x0B;
+        FrameDecoder decoder = new FrameDecoder();
+        Put(decoder, frames);
+
+        assertEquals(1, decoder.GetNumberOfInvalidFrames());
+        AssertCounters(decoder, 0, 1, 2, 3);
+        AssertValidation(new FrameDecoder(), frames, 1, 0, 1, 1);
+    }
+
+    @Test
+    public void SkipsGarbageBetweenFrames()
+    {
+        FrameDecoder decoder = new FrameDecoder();
+        Put(decoder, TestFrames.Create(0));
+        Put(decoder, new byte[] { 0x01, 0x02, 0x0D, 0x0A });
+        Put(decoder, TestFrames.Create(1));
+        AssertCounters(decoder, 0, 1);
+        assertEquals(0, decoder.GetNumberOfInvalidFrames());
+    }
+
+    @Test
+    public void ResyncsAfterStrayHeaderByte()
+    {
+        //a stray sync byte before a frame does not cost the frame
+        byte[] frames = Concat(TestFrames.Create(0), new byte[] { (byte)0xC0 }, TestFrames.CreateSequence(1, 3));
+        FrameDecoder decoder = new FrameDecoder();
+        Put(decoder, frames);
+        assertEquals(1, decoder.GetNumberOfInvalidFrames());
+        AssertValidation(decoder, new byte[0], 1, 1, 1, 1);
+    }
+
+    @Test
+    public void LosesOnlyFrameWithMissingByte()
+    {
+        for(int missingByte : new int[] { 0, 1, 2, 20, 39, 43, 44 })
+        {
+            byte[] frame = TestFrames.Create(1);
+            byte[] damagedFrame = new byte[frame.length - 1];
+            System.arraycopy(frame, 0, damagedFrame, 0, missingByte);
+            System.arraycopy(frame, missingByte + 1, damagedFrame, missingByte, frame.length - missingByte - 1);
+
+            FrameDecoder decoder = new FrameDecoder();
+            Put(decoder, Concat(TestFrames.Create(0), damagedFrame, TestFrames.CreateSequence(2, 2)));
+            AssertValidation(decoder, new byte[0], 1, 0, 1, 1);
+        }
+    }
+
+    @Test
+    public void CorrectsCorruptedCounter()
+    {
+        for(int counterByte = 0; counterByte < 4; counterByte++)
+        {
+            for(int bit = 0; bit < 8; bit++)
+            {
+                byte[] frames = TestFrames.CreateSequence(1000, 4);
+                frames[TestFrames.FrameLength + 39 + counterByte] ^= (byte)(1 << bit);
+                FrameDecoder decoder = new FrameDecoder();
+                Put(decoder, frames);
+                AssertCounters(decoder, 1000, 1001, 1002, 1003);
+                assertEquals(0, decoder.GetNumberOfScansOverflowed());
+            }
+        }
+    }
+
+    @Test
+    public void CorrectsCorruptedCounterAfterGap()
+    {
+        //frames 1 and 2 lost, counter of frame 3 corrupted
+        byte[] frame = TestFrames.Create(3);
+        frame[42] = 0x40;
+        FrameDecoder decoder = new FrameDecoder();
+        Put(decoder, Concat(TestFrames.Create(0), frame, TestFrames.Create(4)));
+        AssertValidation(decoder, new byte[0], 1, 0, 0, 1, 1);
+
+        decoder = new FrameDecoder();
+        Put(decoder, Concat(TestFrames.Create(0), frame, TestFrames.Create(4)));
+        AssertCounters(decoder, 0, 1, 2, 3, 4);
+    }
+
+    @Test
+    public void DropsFalseFrameBetweenConsecutiveFrames()
+    {
+        FrameDecoder decoder = new FrameDecoder();
+        Put(decoder, Concat(TestFrames.Create(0), TestFrames.Create(777), TestFrames.CreateSequence(1, 2)));
+        AssertCounters(decoder, 0, 1, 2);
+        assertEquals(1, decoder.GetNumberOfInvalidFrames());
+    }
+
+    @Test
+    public void IgnoresAckBytesOfDamagedFrames()
+    {
+        //zero accelerometer and gyroscope bytes of a frame with a damaged header or sync byte do not match the ack
+        for(int damagedByte : new int[] { 0, 1 })
+        {
+            byte[] frames = TestFrames.CreateSequence(0, 4);
+            frames[TestFrames.FrameLength + damagedByte] = 0x3F;
+            FrameDecoder decoder = new FrameDecoder();
+            decoder.ExpectAck(Ack);
+            Put(decoder, frames);
+            assertFalse(decoder.IsAckReceived());
+            assertEquals(1, decoder.GetNumberOfInvalidFrames());
+
+            Put(decoder, Ack);
+            assertTrue(decoder.IsAckReceived());
+            AssertValidation(decoder, new byte[0], 1, 0, 1, 1);
+        }
+    }
+
+    @Test
+    public void InterpolatesAcrossCounterWrap()
+    {
+        FrameDecoder decoder = new FrameDecoder();
+        Put(decoder, TestFrames.Create(0xFFFFFFFEL));
+        Put(decoder, TestFrames.CreateSequence(1, 2));
+        AssertCounters(decoder, 0xFFFFFFFEL, 0xFFFFFFFFL, 0, 1, 2);
+
+        FrameDecoder validationDecoder = new FrameDecoder();
+        Put(validationDecoder, TestFrames.Create(0xFFFFFFFEL));
+        AssertValidation(validationDecoder, TestFrames.CreateSequence(1, 2), 1, 0, 0, 1, 1);
+    }
+
+    @Test
+    public void DoesNotInterpolateBackwardJumpOrAfterResync()
+    {
+        FrameDecoder decoder = new FrameDecoder();
+        Put(decoder, TestFrames.Create(1000));
+        Put(decoder, TestFrames.CreateSequence(10, 2));
+        AssertCounters(decoder, 1000, 10, 11);
+
+        decoder.Resync();
+        Put(decoder, TestFrames.Create(500));
+        AssertCounters(decoder, 500);
+
+        //a frame held for confirmation is delivered on resync
+        Put(decoder, TestFrames.Create(600));
+        assertEquals(0, decoder.GetNumberOfScansAvailable());
+        decoder.Resync();
+        Put(decoder, TestFrames.Create(5));
+        AssertCounters(decoder, 600, 5);
+    }
+
+    @Test
+    public void MatchesAckOutsideOfFrames()
+    {
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.ExpectAck(Ack);
+        Put(decoder, TestFrames.Create(0));
+        assertFalse(decoder.IsAckReceived());
+
+        //partial ack split across writes, interrupted by other bytes
+        Put(decoder, new byte[] { 0, 0, 0x01 });
+        assertFalse(decoder.IsAckReceived());
+        Put(decoder, new byte[] { 0, 0 });
+        assertFalse(decoder.IsAckReceived());
+        Put(decoder, new byte[] { 0 });
+        assertTrue(decoder.IsAckReceived());
+
+        //frames following the ack are kept
+        Put(decoder, TestFrames.Create(1));
+        AssertCounters(decoder, 0, 1);
+    }
+
+    @Test
+    public void IgnoresAckBytesInsideFrames()
+    {
+        //zero bytes inside a frame do not match the ack
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.ExpectAck(Ack);
+        Put(decoder, TestFrames.CreateSequence(0, 10));
+        assertFalse(decoder.IsAckReceived());
+
+        decoder.CancelAck();
+        Put(decoder, Ack);
+        assertFalse(decoder.IsAckReceived());
+    }
+
+    @Test
+    public void DiscardsOldestScansBeyondFifoBound()
+    {
+        FrameDecoder decoder = new FrameDecoder();
+        Put(decoder, TestFrames.CreateSequence(0, FrameDecoder.MaxNumberOfScans + 10));
+        assertEquals(FrameDecoder.MaxNumberOfScans, decoder.GetNumberOfScansAvailable());
+        assertEquals(10, decoder.GetNumberOfScansOverflowed());
+
+        float[] scan = new float[UnicornStream.NumberOfAcquiredChannels];
+        assertTrue(decoder.GetData(scan));
+        assertEquals(10, decoder.GetLastCounter());
+    }
+
+    @Test
+    public void LimitsInterpolationOfLongGaps()
+    {
+        FrameDecoder decoder = new FrameDecoder();
+        Put(decoder, TestFrames.Create(0));
+        Put(decoder, TestFrames.CreateSequence(1000000, 2));
+        assertEquals(FrameDecoder.MaxNumberOfScans, decoder.GetNumberOfScansAvailable());
+        assertEquals(1000002, decoder.GetNumberOfScansAvailable() + decoder.GetNumberOfScansOverflowed());
+
+        //the newest scans are kept
+        float[] scan = new float[UnicornStream.NumberOfAcquiredChannels];
+        while(decoder.GetData(scan))
+        {
+        }
+        assertEquals(1000001, decoder.GetLastCounter());
+        assertEquals(1, scan[UnicornStream.ValidationIndicatorChannelIndex], 0);
+    }
+
+    @Test
+    public void ClearDiscardsPartialFrames()
+    {
+        byte[] frame = TestFrames.Create(0);
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.PutData(frame, 0, 20);
+        decoder.Clear();
+        Put(decoder, TestFrames.Create(1));
+        AssertCounters(decoder, 1);
+        assertEquals(0, decoder.GetNumberOfInvalidFrames());
+    }
+
+    private static byte[] Concat(byte[]... parts)
+    {
+        int length = 0;
+        for(byte[] part : parts)
+            length += part.length;
+        byte[] data = new byte[length];
+        int offset = 0;
+        for(byte[] part : parts)
+        {
+            System.arraycopy(part, 0, data, offset, part.length);
+            offset += part.length;
+        }
+        return data;
+    }
+
+    private static void Put(FrameDecoder decoder, byte[] data)
+    {
+        decoder.PutData(data, 0, data.length);
+    }
+
+    private static void AssertCounters(FrameDecoder decoder, long... counters)
+    {
+        float[] scan = new float[UnicornStream.NumberOfAcquiredChannels];
+        for(long counter : counters)
+        {
+            assertTrue(decoder.GetData(scan));
+            assertEquals(counter, decoder.GetLastCounter());
+            assertEquals((float)counter, scan[UnicornStream.CounterChannelIndex], 0);
+        }
+        assertEquals(0, decoder.GetNumberOfScansAvailable());
+    }
+
+    private static void AssertValidation(FrameDecoder decoder, byte[] data, int... validation)
+    {
+        Put(decoder, data);
+        float[] scan = new float[UnicornStream.NumberOfAcquiredChannels];
+        for(int value : validation)
+        {
+            assertTrue(decoder.GetData(scan));
+            assertEquals(value, scan[UnicornStream.ValidationIndicatorChannelIndex], 0);
+        }
+        assertEquals(0, decoder.GetNumberOfScansAvailable());
+    }
+}
@@ -0,0 +1,87 @@
+package gtec.java.unicorn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Device answering start and stop with the ack, followed by a fixed number of frames after a start.
+ * Afterwards it stays silent like a dropped connection until frames are appended.
+ */
+final class ScriptedDevice extends InputStream {
+
+    private ByteArrayOutputStream _pending = new ByteArrayOutputStream();
+    private byte[] _data = new byte[0];
+    private int _dataOffset = 0;
+    private long _firstCounter = 0;
+    private int _numberOfFrames = 0;
+
+    ScriptedDevice()
+    {
+    }
+
+    ScriptedDevice(long firstCounter, int numberOfFrames)
+    {
+        SetFirstCounter(firstCounter, numberOfFrames);
+    }
+
+    void SetFirstCounter(long firstCounter, int numberOfFrames)
+    {
+        _firstCounter = firstCounter;
+        _numberOfFrames = numberOfFrames;
+    }
+
+    OutputStream GetOutputStream()
+    {
+        return new OutputStream()
+        {
+            @Override
+            public void write(int data)
+            {
+                //keep-alive
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length)
+            {
+                if(length != 3)
+                    return;
+                Append(new byte[] { 0, 0, 0 });
+                if(data[offset] == 0x61)
+                    Append(TestFrames.CreateSequence(_firstCounter, _numberOfFrames));
+            }
+        };
+    }
+
+    synchronized void Append(byte[] data)
+    {
+        _pending.write(data, 0, data.length);
+    }
+
+    @Override
+    public synchronized int available()
+    {
+        if(_dataOffset == _data.length && _pending.size() > 0)
+        {
+            _data = _pending.toByteArray();
+            _dataOffset = 0;
+            _pending.reset();
+        }
+        return _data.length - _dataOffset;
+    }
+
+    @Override
+    public synchronized int read()
+    {
+        return available() == 0 ? -1 : _data[_dataOffset++] & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] data, int offset, int length)
+    {
+        int numberOfBytes = Math.min(length, available());
+        System.arraycopy(_data, _dataOffset, data, offset, numberOfBytes);
+        _dataOffset += numberOfBytes;
+        return numberOfBytes;
+    }
+}
@@ -0,0 +1,97 @@
+package gtec.java.unicorn;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SharedMemoryRingTest {
+
+    @Test
+    public void UnwrapsCounterAcrossWrapAndGaps() throws Exception
+    {
+        File file = File.createTempFile("unicorn", ".ring");
+        file.deleteOnExit();
+        SharedMemoryRing ring = new SharedMemoryRing(file, 16);
+        SharedMemoryRingReader reader = new SharedMemoryRingReader(file);
+
+        //device counter wraps, then skips 3 counter values (e.g. scans discarded by the fifo bound)
+        long[] deviceCounters = { 0xFFFFFFFEL, 0xFFFFFFFFL, 0, 1, 5 };
+        long[] sampleCounters = { 0xFFFFFFFEL, 0xFFFFFFFFL, 0x100000000L, 0x100000001L, 0x100000005L };
+        float[] scan = new float[UnicornStream.NumberOfAcquiredChannels];
+        for(int i = 0; i < deviceCounters.length; i++)
+        {
+            scan[0] = i;
+            scan[UnicornStream.CounterChannelIndex] = deviceCounters[i];
+            ring.PutData(scan, deviceCounters[i]);
+        }
+        assertEquals(0x100000005L, reader.GetSampleCounter());
+
+        float[] scanOut = new float[UnicornStream.NumberOfAcquiredChannels];
+        for(int i = 0; i < sampleCounters.length; i++)
+        {
+            assertTrue(reader.GetData(scanOut, 0));
+            assertEquals(i, scanOut[0], 0);
+            assertEquals(sampleCounters[i], reader.GetLastCounter());
+        }
+        assertFalse(reader.GetData(scanOut, 0));
+
+        reader.Close();
+        ring.Close();
+    }
+
+    @Test
+    public void DeviceRestartKeepsCounterMonotonic() throws Exception
+    {
+        File file = File.createTempFile("unicorn", ".ring");
+        file.deleteOnExit();
+        SharedMemoryRing ring = new SharedMemoryRing(file, 16);
+        SharedMemoryRingReader reader = new SharedMemoryRingReader(file);
+
+        //device restarts from 1 and later repeats a counter, neither may jump by about 2^32
+        long[] deviceCounters = { 1000, 1001, 1, 2, 2, 3 };
+        long[] sampleCounters = { 1000, 1001, 1002, 1003, 1004, 1005 };
+        float[] scan = new float[UnicornStream.NumberOfAcquiredChannels];
+        for(int i = 0; i < deviceCounters.length; i++)
+            ring.PutData(scan, deviceCounters[i]);
+        assertEquals(1005, reader.GetSampleCounter());
+
+        for(int i = 0; i < sampleCounters.length; i++)
+        {
+            assertTrue(reader.GetData(scan, 0));
+            assertEquals(sampleCounters[i], reader.GetLastCounter());
+        }
+
+        //counting continues from the restarted device counter
+        ring.PutData(scan, 10);
+        assertTrue(reader.GetData(scan, 0));
+        assertEquals(1012, reader.GetLastCounter());
+
+        reader.Close();
+        ring.Close();
+    }
+
+    @Test
+    public void SkipsOverwrittenScans() throws Exception
+    {
+        File file = File.createTempFile("unicorn", ".ring");
+        file.deleteOnExit();
+        SharedMemoryRing ring = new SharedMemoryRing(file, 8);
+        SharedMemoryRingReader reader = new SharedMemoryRingReader(file);
+
+        float[] scan = new float[UnicornStream.NumberOfAcquiredChannels];
+        for(long counter = 0; counter < 20; counter++)
+            ring.PutData(scan, counter);
+
+        assertTrue(reader.GetData(scan, 0));
+        assertEquals(12, reader.GetLastCounter());
+        assertEquals(12, reader.GetNumberOfScansLost());
+        assertEquals(7, reader.GetNumberOfScansAvailable());
+
+        reader.Close();
+        ring.Close();
+    }
+}
@@ -0,0 +1,203 @@
+package gtec.java.unicorn;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SignalQualityMonitorTest {
+
+    @Test
+    public void LineNoisePowerIsMeanPowerOfSine() throws Exception
+    {
+        //a sine of amplitude 10 uV has a mean power of 10^2 / 2 = 50 uV^2, independent of phase and dc offset
+        AssertLineNoisePower(50, GetLineNoisePower(250, 50, 50, 10, 0));
+        AssertLineNoisePower(50, GetLineNoisePower(250, 60, 60, 10, 1000));
+        AssertLineNoisePower(50, GetLineNoisePower(125, 60, 60, 10, 0));
+        AssertLineNoisePower(50, GetLineNoisePower(100, 50, 50, 10, 1000));
+
+        //the other line frequency is not picked up
+        AssertLineNoisePower(0, GetLineNoisePower(250, 50, 60, 10, 0));
+        AssertLineNoisePower(0, GetLineNoisePower(250, 60, 50, 10, 0));
+    }
+
+    @Test
+    public void LineNoiseBinIsRoundedForOtherUpdateIntervals() throws Exception
+    {
+        //128 samples: 50 Hz falls between bins, the filter is tuned to bin round(25.6) = 26, i.e. 50.78 Hz
+        float binFrequency = 26.0f * UnicornStream.SamplingRateInHz / 128;
+        AssertLineNoisePower(50, GetLineNoisePower(128, 50, binFrequency, 10, 0));
+
+        //a 50 Hz sine leaks partly into the neighbouring bin, depending on its phase
+        for(float power : GetLineNoisePower(128, 50, 50, 10, 0))
+            assertTrue(power > 5 && power < 50);
+    }
+
+    @Test
+    public void VarianceIsExactWithLargeDcOffset() throws Exception
+    {
+        //square wave of +-1 uV on a 300 mV electrode offset
+        SignalQualityMonitor monitor = new SignalQualityMonitor(250);
+        Report report = new Report(monitor);
+        float[] scan = CreateScan();
+        for(int i = 0; i < 250; i++)
+        {
+            for(int channel = 0; channel < UnicornStream.NumberOfEEGChannels; channel++)
+                scan[channel] = 300000 + channel + (i % 2 == 0 ? 1 : -1);
+            monitor.PutData(scan);
+        }
+
+        assertEquals(1, report._numberOfReports);
+        for(int channel = 0; channel < UnicornStream.NumberOfEEGChannels; channel++)
+        {
+            assertEquals(1, report._variance[channel], 1e-3);
+            assertEquals(300000 + channel, report._rms[channel], 1);
+        }
+    }
+
+    @Test
+    public void DetectsFlatLineAndSaturation() throws Exception
+    {
+        float fullScale = UnicornStream.EegFullScaleInMicroVolts;
+        SignalQualityMonitor monitor = new SignalQualityMonitor(250);
+        Report report = new Report(monitor);
+        float[] scan = CreateScan();
+        for(int i = 0; i < 250; i++)
+        {
+            float sign = i % 2 == 0 ? 1 : -1;
+
+            //flat, below and above the 1 uV peak-to-peak threshold
+            scan[0] = 100;
+            scan[1] = 100 + sign * 0.4f;
+            scan[2] = 100 + sign * 1;
+
+            //positive and negative rail, and a large signal below the saturation ratio
+            scan[3] = i == 100 ? fullScale : 0;
+            scan[4] = i == 100 ? -fullScale : 0;
+            scan[5] = sign * 0.95f * fullScale;
+            scan[6] = 0.995f * fullScale;
+            scan[7] = -0.995f * fullScale;
+            monitor.PutData(scan);
+        }
+
+        assertEquals(1, report._numberOfReports);
+        assertTrue(report._flatLine[0]);
+        assertTrue(report._flatLine[1]);
+        assertFalse(report._flatLine[2]);
+        assertFalse(report._saturated[0]);
+        assertFalse(report._saturated[2]);
+        assertTrue(report._saturated[3]);
+        assertTrue(report._saturated[4]);
+        assertFalse(report._saturated[5]);
+        assertTrue(report._saturated[6]);
+        assertTrue(report._saturated[7]);
+
+        //flags are reset for the next update interval
+        for(int i = 0; i < 250; i++)
+        {
+            for(int channel = 0; channel < UnicornStream.NumberOfEEGChannels; channel++)
+                scan[channel] = i % 2 == 0 ? 10 : -10;
+            monitor.PutData(scan);
+        }
+        assertEquals(2, report._numberOfReports);
+        for(int channel = 0; channel < UnicornStream.NumberOfEEGChannels; channel++)
+        {
+            assertFalse(report._flatLine[channel]);
+            assertFalse(report._saturated[channel]);
+        }
+    }
+
+    @Test
+    public void ReportsMotionAndInterpolatedSamples() throws Exception
+    {
+        SignalQualityMonitor monitor = new SignalQualityMonitor(250);
+        Report report = new Report(monitor);
+        float[] scan = CreateScan();
+        for(int i = 0; i < 250; i++)
+        {
+            //accelerometer magnitude alternates between 1 g and 1.2 g, gyroscope magnitude is 5 deg/s
+            scan[UnicornStream.NumberOfEEGChannels] = i % 2 == 0 ? 0.6f : 0.72f;
+            scan[UnicornStream.NumberOfEEGChannels + 1] = 0;
+            scan[UnicornStream.NumberOfEEGChannels + 2] = i % 2 == 0 ? 0.8f : 0.96f;
+            scan[UnicornStream.NumberOfEEGChannels + UnicornStream.NumberOfAccChannels] = 3;
+            scan[UnicornStream.NumberOfEEGChannels + UnicornStream.NumberOfAccChannels + 1] = -4;
+
+            //every 10th sample was interpolated
+            scan[UnicornStream.ValidationIndicatorChannelIndex] = i % 10 == 0 ? 0 : 1;
+            monitor.PutData(scan);
+        }
+
+        assertEquals(1, report._numberOfReports);
+        assertEquals(0.1f, report._motionLevel, 1e-4);
+        assertEquals(5, report._angularRate, 1e-4);
+        assertEquals(0.1f, report._interpolatedSampleRatio, 0);
+    }
+
+    private static void AssertLineNoisePower(float expected, float[] lineNoisePower)
+    {
+        for(int channel = 0; channel < UnicornStream.NumberOfEEGChannels; channel++)
+            assertEquals(expected, lineNoisePower[channel], 1e-2);
+    }
+
+    /**
+     * Returns the line noise power reported for a sine with a different phase on each eeg channel.
+     */
+    private static float[] GetLineNoisePower(int updateIntervalSamples, float lineFrequencyInHz, float sineFrequencyInHz, float amplitude, float offset) throws Exception
+    {
+        SignalQualityMonitor monitor = new SignalQualityMonitor(updateIntervalSamples, lineFrequencyInHz);
+        Report report = new Report(monitor);
+        float[] scan = CreateScan();
+        for(int i = 0; i < updateIntervalSamples; i++)
+        {
+            for(int channel = 0; channel < UnicornStream.NumberOfEEGChannels; channel++)
+                scan[channel] = offset + amplitude * (float)Math.sin(2 * Math.PI * sineFrequencyInHz * i / UnicornStream.SamplingRateInHz + channel);
+            monitor.PutData(scan);
+        }
+
+        assertEquals(1, report._numberOfReports);
+        return report._lineNoisePower;
+    }
+
+    private static float[] CreateScan()
+    {
+        float[] scan = new float[UnicornStream.NumberOfAcquiredChannels];
+        scan[UnicornStream.ValidationIndicatorChannelIndex] = 1;
+        return scan;
+    }
+
+    /**
+     * Copies the last report, which the monitor reuses.
+     */
+    private static class Report implements SignalQualityMonitor.QualityListener
+    {
+        private int _numberOfReports = 0;
+        private float[] _rms = new float[UnicornStream.NumberOfEEGChannels];
+        private float[] _variance = new float[UnicornStream.NumberOfEEGChannels];
+        private float[] _lineNoisePower = new float[UnicornStream.NumberOfEEGChannels];
+        private boolean[] _flatLine = new boolean[UnicornStream.NumberOfEEGChannels];
+        private boolean[] _saturated = new boolean[UnicornStream.NumberOfEEGChannels];
+        private float _motionLevel;
+        private float _angularRate;
+        private float _interpolatedSampleRatio;
+
+        Report(SignalQualityMonitor monitor)
+        {
+            monitor.SetQualityListener(this);
+        }
+
+        @Override
+        public void OnQuality(SignalQualityMonitor.SignalQuality quality)
+        {
+            _numberOfReports++;
+            System.arraycopy(quality.GetRms(), 0, _rms, 0, _rms.length);
+            System.arraycopy(quality.GetVariance(), 0, _variance, 0, _variance.length);
+            System.arraycopy(quality.GetLineNoisePower(), 0, _lineNoisePower, 0, _lineNoisePower.length);
+            System.arraycopy(quality.IsFlatLine(), 0, _flatLine, 0, _flatLine.length);
+            System.arraycopy(quality.IsSaturated(), 0, _saturated, 0, _saturated.length);
+            _motionLevel = quality.GetMotionLevel();
+            _angularRate = quality.GetAngularRate();
+            _interpolatedSampleRatio = quality.GetInterpolatedSampleRatio();
+        }
+    }
+}
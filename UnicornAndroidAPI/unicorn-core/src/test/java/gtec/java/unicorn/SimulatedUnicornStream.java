@@ -0,0 +1,344 @@
+package gtec.java.unicorn;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Simulated Unicorn byte stream for testing the acquisition path without a device.
+ * By default frames are generated on demand as fast as they are read (accelerated time).
+ * In free-running mode frames are produced on a clock of their own and queue up like in a
+ * socket buffer while the consumer stalls. Dropouts, corrupted frames, inserted and missing bytes,
+ * corrupted counters and a 32-bit counter wrap can be injected. Commands written to the output stream
+ * are acknowledged like the device does.
+ */
+public class SimulatedUnicornStream extends InputStream {
+
+    /**
+     * Constant Members...
+     */
+    private final static byte CmdStartAcquisition = 0x61;
+    private final static byte CmdStopAcquisition = 0x63;
+    private final static int AckLength = 3;
+    private final static int FrameLength = 45;
+    private final static int MaxFramesPerChunk = 8;
+
+    /**
+     * Private Members...
+     */
+    private Random _random = null;
+    private double _dropoutProbability = 0;
+    private double _corruptionProbability = 0;
+    private double _misalignmentProbability = 0;
+    private double _counterCorruptionProbability = 0;
+    private int _maxDropoutLength = 1;
+    private byte[] _buffer = null;
+    private int _bufferOffset = 0;
+    private int _bufferLength = 0;
+    private boolean _acquisitionRunning = false;
+    private boolean _closed = false;
+    private double _realtimeFactor = 0;
+    private long _clockStart = 0;
+    private long _clockStartFrame = 0;
+    private long _counter = 0;
+    private long _numberOfFrames = 0;
+    private long _numberOfDroppedFrames = 0;
+    private long _numberOfCorruptedFrames = 0;
+    private long _numberOfMisalignedFrames = 0;
+    private long _numberOfCorruptedCounters = 0;
+    private OutputStream _outputStream = null;
+
+    /**
+     * @param startCounter first counter value sent, e.g. close to 2^32 to inject a counter wrap
+     * @param seed seed of the random generator deciding where faults are injected
+     */
+    public SimulatedUnicornStream(long startCounter, long seed)
+    {
+        _random = new Random(seed);
+        _counter = startCounter & 0xFFFFFFFFL;
+        _buffer = new byte[MaxFramesPerChunk * FrameLength + 2 * AckLength];
+        _outputStream = new CommandStream();
+    }
+
+    /**
+     * Sets the probability per frame that a dropout of 1 to maxDropoutLength frames starts.
+     */
+    public void SetDropouts(double probability, int maxDropoutLength)
+    {
+        _dropoutProbability = probability;
+        _maxDropoutLength = Math.max(1, maxDropoutLength);
+    }
+
+    /**
+     * Sets the probability per frame that the sync byte, the second header byte or the footer of a frame is damaged.
+     */
+    public void SetCorruption(double probability)
+    {
+        _corruptionProbability = probability;
+    }
+
+    /**
+     * Sets the probability per frame that a stray byte (a sync byte in half of the cases) is inserted
+     * before the frame or that a byte of the frame is missing.
+     */
+    public void SetMisalignment(double probability)
+    {
+        _misalignmentProbability = probability;
+    }
+
+    /**
+     * Sets the probability per frame that a bit of the counter is flipped while header and footer stay intact.
+     */
+    public void SetCounterCorruption(double probability)
+    {
+        _counterCorruptionProbability = probability;
+    }
+
+    /**
+     * Produces frames at the sampling rate times the given factor of wall clock time, independent of reads.
+     * Zero generates frames on demand.
+     */
+    public void SetRealtimeFactor(double factor)
+    {
+        _realtimeFactor = factor;
+    }
+
+    /**
+     * Returns the stream receiving commands, to be passed to the UnicornStream together with this stream.
+     */
+    public OutputStream GetOutputStream()
+    {
+        return _outputStream;
+    }
+
+    /**
+     * Returns the number of counter values sent or skipped so far.
+     */
+    public long GetNumberOfFrames()
+    {
+        return _numberOfFrames;
+    }
+
+    public long GetNumberOfDroppedFrames()
+    {
+        return _numberOfDroppedFrames;
+    }
+
+    public long GetNumberOfCorruptedFrames()
+    {
+        return _numberOfCorruptedFrames;
+    }
+
+    public long GetNumberOfMisalignedFrames()
+    {
+        return _numberOfMisalignedFrames;
+    }
+
+    public long GetNumberOfCorruptedCounters()
+    {
+        return _numberOfCorruptedCounters;
+    }
+
+    public boolean IsClosed()
+    {
+        return _closed;
+    }
+
+    @Override
+    public synchronized int available()
+    {
+        if(_acquisitionRunning && !_closed)
+        {
+            if(_realtimeFactor > 0)
+            {
+                //all frames due on the simulated clock
+                long framesDue = (long)((System.nanoTime() - _clockStart) / 1e9 * UnicornStream.SamplingRateInHz * _realtimeFactor);
+                while(_numberOfFrames - _clockStartFrame < framesDue)
+                    GenerateFrame();
+            }
+            else if(_bufferOffset == _bufferLength)
+            {
+                int numberOfFrames = 1 + _random.nextInt(MaxFramesPerChunk);
+                for(int i = 0; i < numberOfFrames; i++)
+                    GenerateFrame();
+            }
+        }
+        return _bufferLength - _bufferOffset;
+    }
+
+    @Override
+    public synchronized int read()
+    {
+        if(available() == 0)
+            return -1;
+        return _buffer[_bufferOffset++] & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] data, int offset, int length)
+    {
+        int numberOfBytes = Math.min(length, available());
+        if(numberOfBytes == 0)
+            return length == 0 ? 0 : -1;
+        System.arraycopy(_buffer, _bufferOffset, data, offset, numberOfBytes);
+        _bufferOffset += numberOfBytes;
+        return numberOfBytes;
+    }
+
+    @Override
+    public void close()
+    {
+        _closed = true;
+    }
+
+    private void GenerateFrame()
+    {
+        //dropout
+        if(_random.nextDouble() < _dropoutProbability)
+        {
+            int dropoutLength = 1 + _random.nextInt(_maxDropoutLength);
+            _counter = (_counter + dropoutLength) & 0xFFFFFFFFL;
+            _numberOfFrames += dropoutLength;
+            _numberOfDroppedFrames += dropoutLength;
+        }
+
+        Reserve(FrameLength + 1);
+        int frameLength = FrameLength;
+
+        //stray byte before the frame or missing byte
+        boolean misaligned = _random.nextDouble() < _misalignmentProbability;
+        if(misaligned && _random.nextBoolean())
+        {
+            _buffer[_bufferLength++] = _random.nextBoolean() ? (byte)0xC0 : (byte)_random.nextInt(256);
+            misaligned = false;
+            _numberOfMisalignedFrames++;
+        }
+
+        WriteFrame(_bufferLength);
+
+        //corrupt sync byte, header or footer
+        if(_random.nextDouble() < _corruptionProbability)
+        {
+            int[] indices = { 0, 1, FrameLength - 1 };
+            int index = _bufferLength + indices[_random.nextInt(indices.length)];
+            _buffer[index] = (byte)~_buffer[index];
+            _numberOfCorruptedFrames++;
+        }
+
+        //corrupt counter
+        if(_random.nextDouble() < _counterCorruptionProbability)
+        {
+            _buffer[_bufferLength + 39 + _random.nextInt(4)] ^= (byte)(1 << _random.nextInt(8));
+            _numberOfCorruptedCounters++;
+        }
+
+        if(misaligned)
+        {
+            int index = _random.nextInt(FrameLength);
+            System.arraycopy(_buffer, _bufferLength + index + 1, _buffer, _bufferLength + index, FrameLength - index - 1);
+            frameLength--;
+            _numberOfMisalignedFrames++;
+        }
+
+        _bufferLength += frameLength;
+        _counter = (_counter + 1) & 0xFFFFFFFFL;
+        _numberOfFrames++;
+    }
+
+    private void Reserve(int length)
+    {
+        if(_bufferLength + length <= _buffer.length)
+            return;
+
+        //keep data that was not read yet, grow while the consumer stalls
+        System.arraycopy(_buffer, _bufferOffset, _buffer, 0, _bufferLength - _bufferOffset);
+        _bufferLength -= _bufferOffset;
+        _bufferOffset = 0;
+        if(_bufferLength + length > _buffer.length)
+        {
+            byte[] buffer = new byte[Math.max(2 * _buffer.length, _bufferLength + length)];
+            System.arraycopy(_buffer, 0, buffer, 0, _bufferLength);
+            _buffer = buffer;
+        }
+    }
+
+    private void WriteFrame(int offset)
+    {
+        //header
+        _buffer[offset] = (byte)0xC0;
+        _buffer[offset + 1] = 0x00;
+
+        //battery level
+        _buffer[offset + 2] = 0x0F;
+
+        //eeg (slow ramp per channel)
+        for(int i = 0; i < UnicornStream.NumberOfEEGChannels; i++)
+        {
+            int value = (int)((_counter * (i + 1)) & 0xFFFF) - 0x8000;
+            _buffer[offset + 3 + i * 3] = (byte)(value >> 16);
+            _buffer[offset + 4 + i * 3] = (byte)(value >> 8);
+            _buffer[offset + 5 + i * 3] = (byte)value;
+        }
+
+        //accelerometer and gyroscope (1 g on z, no rotation)
+        for(int i = 0; i < 12; i++)
+            _buffer[offset + 27 + i] = 0;
+        _buffer[offset + 31] = (byte)(4096 & 0xFF);
+        _buffer[offset + 32] = (byte)(4096 >> 8);
+
+        //counter
+        _buffer[offset + 39] = (byte)_counter;
+        _buffer[offset + 40] = (byte)(_counter >> 8);
+        _buffer[offset + 41] = (byte)(_counter >> 16);
+        _buffer[offset + 42] = (byte)(_counter >> 24);
+
+        //footer
+        _buffer[offset + 43] = 0x0D;
+        _buffer[offset + 44] = 0x0A;
+    }
+
+    private void AppendAck()
+    {
+        Reserve(AckLength);
+        for(int i = 0; i < AckLength; i++)
+            _buffer[_bufferLength++] = 0;
+    }
+
+    private class CommandStream extends OutputStream
+    {
+        @Override
+        public void write(int data)
+        {
+            //single bytes are keep-alive messages
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length)
+        {
+            if(length != AckLength)
+                return;
+
+            synchronized (SimulatedUnicornStream.this)
+            {
+                if(data[offset] == CmdStartAcquisition)
+                {
+                    AppendAck();
+                    _acquisitionRunning = true;
+                    _clockStart = System.nanoTime();
+                    _clockStartFrame = _numberOfFrames;
+                }
+                else if(data[offset] == CmdStopAcquisition)
+                {
+                    _acquisitionRunning = false;
+                    AppendAck();
+                }
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            _closed = true;
+        }
+    }
+}
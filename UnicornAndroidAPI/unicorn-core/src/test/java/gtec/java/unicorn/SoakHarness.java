@@ -0,0 +1,386 @@
+package gtec.java.unicorn;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Long-duration soak test of the acquisition path against a simulated byte stream.
+ * Runs the equivalent of many hours of 250 Hz data in accelerated time with injected dropouts,
+ * corruption, misalignment, corrupted counters, counter wrap and optionally consumer stalls against a
+ * free-running device. It checks stream continuity on the exact device counter, the scan fifo bound,
+ * heap growth, garbage collections, GetData latency, throughput and connection cleanup, and produces
+ * a pass/fail report with heap and throughput curves.
+ */
+public class SoakHarness {
+
+    public static class SoakReport
+    {
+        private boolean _passed = true;
+        private List<String> _failures = new ArrayList<>();
+        private List<double[]> _curve = new ArrayList<>();
+        private long _numberOfScans = 0;
+        private long _numberOfInterpolatedScans = 0;
+        private long _numberOfInjectedFaults = 0;
+        private long _numberOfScansOverflowed = 0;
+        private long _numberOfCountersSkipped = 0;
+        private int _maxNumberOfScansBuffered = 0;
+        private double _durationInHours = 0;
+        private double _wallClockInSeconds = 0;
+        private long _latencyP99Us = 0;
+        private long _latencyMaxUs = 0;
+        private long _numberOfGcs = 0;
+        private long _gcTimeMs = 0;
+        private String _injectedFaults = "";
+
+        private SoakReport()
+        {
+        }
+
+        private void Fail(String failure)
+        {
+            _passed = false;
+            _failures.add(failure);
+        }
+
+        public boolean Passed()
+        {
+            return _passed;
+        }
+
+        public List<String> GetFailures()
+        {
+            return _failures;
+        }
+
+        public long GetNumberOfScansOverflowed()
+        {
+            return _numberOfScansOverflowed;
+        }
+
+        public int GetMaxNumberOfScansBuffered()
+        {
+            return _maxNumberOfScansBuffered;
+        }
+
+        /**
+         * Returns one entry per checkpoint: simulated hours, heap in use after GC in MB, scans per second (wall clock).
+         */
+        public List<double[]> GetCurve()
+        {
+            return _curve;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("Soak test %s\n", _passed ? "PASSED" : "FAILED"));
+            report.append(String.format("Simulated: %.1f h (%d scans) in %.1f s\n", _durationInHours, _numberOfScans, _wallClockInSeconds));
+            report.append(String.format("Interpolated scans: %d (injected faults: %d; %s)\n", _numberOfInterpolatedScans, _numberOfInjectedFaults, _injectedFaults));
+            report.append(String.format("Buffered scans: max %d, overflowed %d (counter values skipped: %d)\n", _maxNumberOfScansBuffered, _numberOfScansOverflowed, _numberOfCountersSkipped));
+            report.append(String.format("GetData latency: p99 <= %d us, max %d us\n", _latencyP99Us, _latencyMaxUs));
+            report.append(String.format("Garbage collections: %d, %d ms (%.2f %% of wall clock)\n", _numberOfGcs, _gcTimeMs, 100 * _gcTimeMs / (1000 * _wallClockInSeconds)));
+            report.append("hours;heapMB;scansPerSecond\n");
+            for(double[] point : _curve)
+                report.append(String.format("%.2f;%.2f;%.0f\n", point[0], point[1], point[2]));
+            for(String failure : _failures)
+                report.append(String.format("FAIL: %s\n", failure));
+            return report.toString();
+        }
+    }
+
+    /**
+     * Public Members...
+     */
+    public final static double DefaultDurationInHours = 24;
+    public final static double DefaultCheckpointIntervalInHours = 1;
+    public final static long DefaultHeapGrowthBudgetInBytes = 16 * 1024 * 1024;
+    public final static long DefaultLatencyP99BudgetUs = 1000;
+    public final static long DefaultLatencyMaxBudgetUs = 500000;
+    public final static double DefaultMinimumRealtimeFactor = 10;
+    public final static long DefaultGcCountBudgetPerHour = 200;
+    public final static double DefaultGcTimeBudgetRatio = 0.02;
+    public final static long DefaultStartCounter = 0x100000000L - 60 * UnicornStream.SamplingRateInHz;
+
+    /**
+     * Constant Members...
+     */
+    private final static int NumberOfLatencyBuckets = 32;
+
+    /**
+     * Private Members...
+     */
+    private double _durationInHours = DefaultDurationInHours;
+    private double _checkpointIntervalInHours = DefaultCheckpointIntervalInHours;
+    private long _startCounter = DefaultStartCounter;
+    private long _seed = 0;
+    private double _dropoutProbability = 0.0005;
+    private int _maxDropoutLength = 50;
+    private double _corruptionProbability = 0.0005;
+    private double _misalignmentProbability = 0.0005;
+    private double _counterCorruptionProbability = 0.0005;
+    private long _heapGrowthBudgetInBytes = DefaultHeapGrowthBudgetInBytes;
+    private long _latencyP99BudgetUs = DefaultLatencyP99BudgetUs;
+    private long _latencyMaxBudgetUs = DefaultLatencyMaxBudgetUs;
+    private double _minimumRealtimeFactor = DefaultMinimumRealtimeFactor;
+    private long _gcCountBudgetPerHour = DefaultGcCountBudgetPerHour;
+    private double _gcTimeBudgetRatio = DefaultGcTimeBudgetRatio;
+    private long _numberOfExplicitGcs = 0;
+    private long _explicitGcTimeMs = 0;
+    private double _deviceRealtimeFactor = 0;
+    private double _stallIntervalInHours = 0;
+    private int _stallDurationMs = 0;
+
+    public void SetDuration(double hours)
+    {
+        _durationInHours = hours;
+    }
+
+    public void SetCheckpointInterval(double hours)
+    {
+        _checkpointIntervalInHours = hours;
+    }
+
+    /**
+     * Sets the first device counter value. The default wraps the 32-bit counter after one simulated minute.
+     */
+    public void SetStartCounter(long startCounter)
+    {
+        _startCounter = startCounter;
+    }
+
+    public void SetSeed(long seed)
+    {
+        _seed = seed;
+    }
+
+    public void SetDropouts(double probability, int maxDropoutLength)
+    {
+        _dropoutProbability = probability;
+        _maxDropoutLength = maxDropoutLength;
+    }
+
+    public void SetCorruption(double probability)
+    {
+        _corruptionProbability = probability;
+    }
+
+    public void SetMisalignment(double probability)
+    {
+        _misalignmentProbability = probability;
+    }
+
+    public void SetCounterCorruption(double probability)
+    {
+        _counterCorruptionProbability = probability;
+    }
+
+    public void SetHeapGrowthBudget(long bytes)
+    {
+        _heapGrowthBudgetInBytes = bytes;
+    }
+
+    public void SetLatencyBudget(long p99Us, long maxUs)
+    {
+        _latencyP99BudgetUs = p99Us;
+        _latencyMaxBudgetUs = maxUs;
+    }
+
+    /**
+     * Sets the maximum number of garbage collections per simulated hour and the maximum fraction of wall clock
+     * time spent in garbage collection. Collections forced by the heap checkpoints are not counted.
+     */
+    public void SetGcBudget(long countPerHour, double timeRatio)
+    {
+        _gcCountBudgetPerHour = countPerHour;
+        _gcTimeBudgetRatio = timeRatio;
+    }
+
+    /**
+     * Sets the minimum ratio of simulated time to wall clock time.
+     */
+    public void SetMinimumRealtimeFactor(double factor)
+    {
+        _minimumRealtimeFactor = factor;
+    }
+
+    /**
+     * Lets the simulated device produce data on its own clock at the given factor of real time instead of on demand.
+     */
+    public void SetDeviceRealtimeFactor(double factor)
+    {
+        _deviceRealtimeFactor = factor;
+    }
+
+    /**
+     * Stops reading for durationMs (wall clock) every intervalInHours of simulated data.
+     * Only has an effect on a free-running device, see SetDeviceRealtimeFactor.
+     */
+    public void SetConsumerStalls(double intervalInHours, int durationMs)
+    {
+        _stallIntervalInHours = intervalInHours;
+        _stallDurationMs = durationMs;
+    }
+
+    public SoakReport Run() throws Exception
+    {
+        SoakReport report = new SoakReport();
+        long[] latencyHistogram = new long[NumberOfLatencyBuckets];
+        long totalScans = (long)(_durationInHours * 3600 * UnicornStream.SamplingRateInHz);
+        long scansPerCheckpoint = Math.max(1, (long)(_checkpointIntervalInHours * 3600 * UnicornStream.SamplingRateInHz));
+        long scansPerStall = _stallDurationMs > 0 ? Math.max(1, (long)(_stallIntervalInHours * 3600 * UnicornStream.SamplingRateInHz)) : 0;
+
+        //open simulated device
+        SimulatedUnicornStream stream = new SimulatedUnicornStream(_startCounter, _seed);
+        stream.SetDropouts(_dropoutProbability, _maxDropoutLength);
+        stream.SetCorruption(_corruptionProbability);
+        stream.SetMisalignment(_misalignmentProbability);
+        stream.SetCounterCorruption(_counterCorruptionProbability);
+        stream.SetRealtimeFactor(_deviceRealtimeFactor);
+        UnicornStream unicorn = new UnicornStream(stream, stream.GetOutputStream());
+        unicorn.StartAcquisition();
+
+        long baselineHeap = UsedHeapAfterGc();
+        long maxHeap = baselineHeap;
+        long[] gcStart = GetGcCountAndTime();
+        long explicitGcStart = _numberOfExplicitGcs;
+        long explicitGcTimeStart = _explicitGcTimeMs;
+        long start = System.nanoTime();
+        long checkpointStart = start;
+        long expectedCounter = 0;
+        String firstDiscontinuity = null;
+        long numberOfCounterMismatches = 0;
+
+        for(long scanIndex = 0; scanIndex < totalScans; scanIndex++)
+        {
+            long t0 = System.nanoTime();
+            float[] scan = unicorn.GetData();
+            long latencyUs = (System.nanoTime() - t0) / 1000;
+            latencyHistogram[Math.min(NumberOfLatencyBuckets - 1, 64 - Long.numberOfLeadingZeros(latencyUs))]++;
+            report._latencyMaxUs = Math.max(report._latencyMaxUs, latencyUs);
+
+            //check continuity on the exact device counter (scans discarded by the fifo bound skip counter values)
+            long counter = unicorn.GetLastCounter();
+            expectedCounter = (expectedCounter + 1) & 0xFFFFFFFFL;
+            if(scanIndex == 0)
+            {
+                //frames lost before the first frame are not interpolated
+                expectedCounter = counter;
+            }
+            else if(counter != expectedCounter)
+            {
+                if(firstDiscontinuity == null)
+                    firstDiscontinuity = String.format("scan %d: expected %d, got %d", scanIndex, expectedCounter, counter);
+                report._numberOfCountersSkipped += (counter - expectedCounter) & 0xFFFFFFFFL;
+                expectedCounter = counter;
+            }
+            if(scan[UnicornStream.CounterChannelIndex] != (float)counter)
+                numberOfCounterMismatches++;
+            if(scan[UnicornStream.ValidationIndicatorChannelIndex] == 0)
+                report._numberOfInterpolatedScans++;
+            report._maxNumberOfScansBuffered = Math.max(report._maxNumberOfScansBuffered, unicorn.GetNumberOfScansAvailable());
+
+            //consumer stall while the device keeps sending
+            if(scansPerStall > 0 && (scanIndex + 1) % scansPerStall == 0)
+                Thread.sleep(_stallDurationMs);
+
+            //checkpoint
+            if((scanIndex + 1) % scansPerCheckpoint == 0 || scanIndex + 1 == totalScans)
+            {
+                long now = System.nanoTime();
+                long scansInCheckpoint = (scanIndex % scansPerCheckpoint) + 1;
+                long heap = UsedHeapAfterGc();
+                maxHeap = Math.max(maxHeap, heap);
+                report._curve.add(new double[] {
+                        (scanIndex + 1) / (3600.0 * UnicornStream.SamplingRateInHz),
+                        heap / (1024.0 * 1024.0),
+                        scansInCheckpoint / ((now - checkpointStart) / 1e9) });
+                checkpointStart = System.nanoTime();
+            }
+        }
+        report._wallClockInSeconds = (System.nanoTime() - start) / 1e9;
+        long[] gcEnd = GetGcCountAndTime();
+        report._numberOfGcs = gcEnd[0] - gcStart[0] - (_numberOfExplicitGcs - explicitGcStart);
+        report._gcTimeMs = gcEnd[1] - gcStart[1] - (_explicitGcTimeMs - explicitGcTimeStart);
+        report._numberOfScansOverflowed = unicorn.GetNumberOfScansOverflowed();
+
+        //stop and close device
+        unicorn.StopAcquisition();
+        unicorn.Close();
+
+        //evaluate budgets
+        report._numberOfScans = totalScans;
+        report._durationInHours = totalScans / (3600.0 * UnicornStream.SamplingRateInHz);
+        report._numberOfInjectedFaults = stream.GetNumberOfDroppedFrames() + stream.GetNumberOfCorruptedFrames() + stream.GetNumberOfMisalignedFrames() + stream.GetNumberOfCorruptedCounters();
+        report._injectedFaults = String.format("dropped %d, corrupted %d, misaligned %d, corrupted counters %d", stream.GetNumberOfDroppedFrames(), stream.GetNumberOfCorruptedFrames(), stream.GetNumberOfMisalignedFrames(), stream.GetNumberOfCorruptedCounters());
+        report._latencyP99Us = Percentile(latencyHistogram, totalScans, 0.99);
+
+        if(report._numberOfCountersSkipped != report._numberOfScansOverflowed)
+            report.Fail(String.format("%d counter values skipped but %d scans overflowed (first discontinuity at %s).", report._numberOfCountersSkipped, report._numberOfScansOverflowed, firstDiscontinuity));
+        if(numberOfCounterMismatches > 0)
+            report.Fail(String.format("Counter channel differs from the device counter in %d scans.", numberOfCounterMismatches));
+        if(report._maxNumberOfScansBuffered > FrameDecoder.MaxNumberOfScans)
+            report.Fail(String.format("%d scans buffered (bound %d).", report._maxNumberOfScansBuffered, FrameDecoder.MaxNumberOfScans));
+        if(report._numberOfInterpolatedScans > report._numberOfInjectedFaults)
+            report.Fail(String.format("%d scans interpolated but only %d frames lost.", report._numberOfInterpolatedScans, report._numberOfInjectedFaults));
+        if(maxHeap - baselineHeap > _heapGrowthBudgetInBytes)
+            report.Fail(String.format("Heap grew by %d bytes (budget %d).", maxHeap - baselineHeap, _heapGrowthBudgetInBytes));
+        if(report._latencyP99Us > _latencyP99BudgetUs)
+            report.Fail(String.format("GetData p99 latency %d us (budget %d us).", report._latencyP99Us, _latencyP99BudgetUs));
+        if(report._latencyMaxUs > _latencyMaxBudgetUs)
+            report.Fail(String.format("GetData max latency %d us (budget %d us).", report._latencyMaxUs, _latencyMaxBudgetUs));
+        if(report._numberOfGcs > _gcCountBudgetPerHour * Math.max(1, report._durationInHours))
+            report.Fail(String.format("%d garbage collections (budget %d per hour).", report._numberOfGcs, _gcCountBudgetPerHour));
+        if(report._gcTimeMs > _gcTimeBudgetRatio * 1000 * report._wallClockInSeconds)
+            report.Fail(String.format("Garbage collection took %d ms of %.1f s (budget %.1f %%).", report._gcTimeMs, report._wallClockInSeconds, 100 * _gcTimeBudgetRatio));
+        double realtimeFactor = report._durationInHours * 3600 / report._wallClockInSeconds;
+        if(realtimeFactor < _minimumRealtimeFactor)
+            report.Fail(String.format("Throughput %.1fx real time (minimum %.1fx).", realtimeFactor, _minimumRealtimeFactor));
+        if(!stream.IsClosed())
+            report.Fail("Connection was not closed.");
+
+        return report;
+    }
+
+    private long UsedHeapAfterGc()
+    {
+        //forced collections are excluded from the garbage collection budget
+        long[] gcStart = GetGcCountAndTime();
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+        long[] gcEnd = GetGcCountAndTime();
+        _numberOfExplicitGcs += gcEnd[0] - gcStart[0];
+        _explicitGcTimeMs += gcEnd[1] - gcStart[1];
+        return usedHeap;
+    }
+
+    /**
+     * Returns the number of collections and the accumulated collection time in ms of all collectors.
+     */
+    private static long[] GetGcCountAndTime()
+    {
+        long[] countAndTime = new long[2];
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            countAndTime[0] += Math.max(0, collector.getCollectionCount());
+            countAndTime[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return countAndTime;
+    }
+
+    private static long Percentile(long[] histogram, long count, double percentile)
+    {
+        long threshold = (long)Math.ceil(count * percentile);
+        long sum = 0;
+        for(int i = 0; i < histogram.length; i++)
+        {
+            sum += histogram[i];
+            if(sum >= threshold)
+                return i == 0 ? 0 : (1L << i) - 1;
+        }
+        return Long.MAX_VALUE;
+    }
+}
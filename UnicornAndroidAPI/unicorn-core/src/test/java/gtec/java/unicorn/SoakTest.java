@@ -0,0 +1,37 @@
+package gtec.java.unicorn;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Short soak runs as part of the unit tests. Longer runs: ./gradlew :unicorn-core:soakTest -Phours=24
+ */
+public class SoakTest {
+
+    @Test
+    public void Soak() throws Exception
+    {
+        SoakHarness harness = new SoakHarness();
+        harness.SetDuration(Double.parseDouble(System.getProperty("soak.hours", "1")));
+        SoakHarness.SoakReport report = harness.Run();
+        System.out.print(report);
+        assertTrue(report.toString(), report.Passed());
+    }
+
+    @Test
+    public void ConsumerStallsAgainstFreeRunningDevice() throws Exception
+    {
+        //500 ms stalls at 200x real time back up 25000 scans, more than the fifo holds
+        SoakHarness harness = new SoakHarness();
+        harness.SetDuration(0.1);
+        harness.SetCheckpointInterval(0.02);
+        harness.SetDeviceRealtimeFactor(200);
+        harness.SetConsumerStalls(0.04, 500);
+        harness.SetLatencyBudget(SoakHarness.DefaultLatencyMaxBudgetUs, SoakHarness.DefaultLatencyMaxBudgetUs);
+        SoakHarness.SoakReport report = harness.Run();
+        System.out.print(report);
+        assertTrue(report.toString(), report.Passed());
+        assertTrue(report.toString(), report.GetNumberOfScansOverflowed() > 0);
+    }
+}
@@ -0,0 +1,250 @@
+package gtec.java.unicorn;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpatialFilterTest {
+
+    @Test
+    public void LaplacianSubtractsNeighbourMean() throws Exception
+    {
+        float[][] matrix = SpatialFilter.Laplacian(new int[] { 2 }, new int[][] { { 0, 1, 3, 4 } });
+        assertArrayEquals(new float[] { -0.25f, -0.25f, 1, -0.25f, -0.25f, 0, 0, 0 }, matrix[0], 0);
+
+        SpatialFilter filter = new SpatialFilter(matrix);
+        float[] scan = new float[UnicornStream.NumberOfAcquiredChannels];
+        for(int i = 0; i < SpatialFilter.NumberOfInputChannels; i++)
+            scan[i] = i;
+        float[] out = new float[1];
+        filter.Apply(scan, out);
+        assertEquals(2 - (0 + 1 + 3 + 4) / 4.0f, out[0], 1e-6);
+    }
+
+    @Test
+    public void LaplacianRejectsInvalidChannels()
+    {
+        AssertInvalid(new int[] { 8 }, new int[][] { { 0, 1 } });
+        AssertInvalid(new int[] { -1 }, new int[][] { { 0, 1 } });
+        AssertInvalid(new int[] { 2 }, new int[][] { { 0, 8 } });
+        AssertInvalid(new int[] { 2 }, new int[][] { { -1, 1 } });
+        AssertInvalid(new int[] { 2 }, new int[][] { { 1, 2, 3 } });
+        AssertInvalid(new int[] { 2 }, new int[][] { { 1, 1, 3 } });
+        AssertInvalid(new int[] { 2 }, new int[][] { {} });
+        AssertInvalid(new int[] { 2, 3 }, new int[][] { { 1 } });
+    }
+
+    @Test
+    public void BlockedApplyHandlesOffsetAndBlockBoundaries() throws Exception
+    {
+        Random random = new Random(1);
+        float[][] matrix = CreateMatrix(random, 3);
+        float[][] input = CreateInput(random, 300);
+        SpatialFilter filter = new SpatialFilter(matrix);
+
+        //150 samples from offset 5 span three 64-sample blocks, the last one partial
+        float[][] output = new float[3][300];
+        for(float[] row : output)
+            Arrays.fill(row, Float.NaN);
+        assertEquals(3, filter.Apply(input, output, 5, 150));
+
+        for(int m = 0; m < 3; m++)
+        {
+            for(int t = 0; t < 300; t++)
+            {
+                if(t < 5 || t >= 155)
+                    assertTrue(Float.isNaN(output[m][t]));
+                else
+                    assertEquals(GetExpected(matrix[m], input, t), output[m][t], 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void BlockedApplyMatchesScanApply() throws Exception
+    {
+        Random random = new Random(2);
+        float[][] matrix = CreateMatrix(random, 4);
+        float[][] input = CreateInput(random, 130);
+        SpatialFilter filter = new SpatialFilter(matrix);
+
+        float[][] output = new float[4][130];
+        filter.Apply(input, output, 0, 130);
+
+        float[] scan = new float[UnicornStream.NumberOfAcquiredChannels];
+        float[] scanOutput = new float[4];
+        for(int t = 0; t < 130; t++)
+        {
+            for(int c = 0; c < SpatialFilter.NumberOfInputChannels; c++)
+                scan[c] = input[c][t];
+            filter.Apply(scan, scanOutput);
+            for(int m = 0; m < 4; m++)
+                assertEquals(scanOutput[m], output[m][t], 1e-5);
+        }
+    }
+
+    @Test
+    public void BlockedApplySkipsZeroWeights() throws Exception
+    {
+        //channels with zero weight are not read, so invalid values there do not reach the output
+        float[][] matrix = SpatialFilter.Laplacian(new int[] { 2 }, new int[][] { { 0, 1, 3, 4 } });
+        float[][] input = CreateInput(new Random(3), 100);
+        for(int t = 0; t < 100; t++)
+        {
+            input[5][t] = Float.NaN;
+            input[6][t] = Float.POSITIVE_INFINITY;
+        }
+        input[7] = new float[0];
+
+        float[][] output = new float[1][100];
+        new SpatialFilter(matrix).Apply(input, output, 0, 100);
+        for(int t = 0; t < 100; t++)
+            assertEquals(GetExpected(matrix[0], input, t), output[0][t], 1e-5);
+    }
+
+    @Test
+    public void HotSwapChangesNumberOfOutputsWithNextApply() throws Exception
+    {
+        Random random = new Random(4);
+        float[][] input = CreateInput(random, 100);
+        float[][] output = new float[4][100];
+        float[][] twoRows = CreateMatrix(random, 2);
+        float[][] fourRows = CreateMatrix(random, 4);
+        float[][] oneRow = CreateMatrix(random, 1);
+        SpatialFilter filter = new SpatialFilter(twoRows, 4);
+        assertEquals(4, filter.GetMaxNumberOfOutputs());
+        assertEquals(2, filter.Apply(input, output, 0, 100));
+
+        //pending matrix is reported, but used only from the next Apply on
+        filter.SetMatrix(fourRows);
+        assertEquals(4, filter.GetNumberOfOutputs());
+        assertEquals(4, filter.Apply(input, output, 0, 100));
+        AssertOutput(fourRows, input, output, 4);
+
+        //rows beyond the smaller matrix are left untouched
+        filter.SetMatrix(oneRow);
+        float[] previousRow = output[1].clone();
+        assertEquals(1, filter.Apply(input, output, 0, 100));
+        AssertOutput(oneRow, input, output, 1);
+        assertArrayEquals(previousRow, output[1], 0);
+
+        try
+        {
+            filter.SetMatrix(CreateMatrix(random, 5));
+            fail("Matrix with more rows than the maximum accepted.");
+        }
+        catch(Exception e)
+        {
+            assertEquals(1, filter.GetNumberOfOutputs());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void ConcurrentHotSwapAppliesOneMatrixPerCall() throws Exception
+    {
+        Random random = new Random(5);
+        float[][] input = CreateInput(random, 200);
+        float[][] oneRow = CreateMatrix(random, 1);
+        float[][] threeRows = CreateMatrix(random, 3);
+        SpatialFilter filter = new SpatialFilter(oneRow, 3);
+
+        AtomicBoolean stop = new AtomicBoolean(false);
+        Exception[] failure = new Exception[1];
+        Thread swapper = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    for(int i = 0; !stop.get(); i++)
+                        filter.SetMatrix(i % 2 == 0 ? threeRows : oneRow);
+                }
+                catch(Exception e)
+                {
+                    failure[0] = e;
+                }
+            }
+        });
+        swapper.start();
+
+        //the returned row count identifies the matrix used for the whole block
+        float[][] output = new float[3][200];
+        boolean[] seen = new boolean[4];
+        for(int i = 0; i < 2000; i++)
+        {
+            int numberOfOutputs = filter.Apply(input, output, 0, 200);
+            seen[numberOfOutputs] = true;
+            AssertOutput(numberOfOutputs == 3 ? threeRows : oneRow, input, output, numberOfOutputs);
+        }
+        stop.set(true);
+        swapper.join();
+
+        assertEquals(null, failure[0]);
+        assertFalse(seen[0] || seen[2]);
+    }
+
+    private static float[][] CreateMatrix(Random random, int numberOfOutputs)
+    {
+        float[][] matrix = new float[numberOfOutputs][SpatialFilter.NumberOfInputChannels];
+        for(float[] row : matrix)
+        {
+            for(int c = 0; c < SpatialFilter.NumberOfInputChannels; c++)
+                row[c] = random.nextFloat() * 2 - 1;
+        }
+        return matrix;
+    }
+
+    private static float[][] CreateInput(Random random, int numberOfScans)
+    {
+        float[][] input = new float[SpatialFilter.NumberOfInputChannels][numberOfScans];
+        for(float[] channel : input)
+        {
+            for(int t = 0; t < numberOfScans; t++)
+                channel[t] = (float)random.nextGaussian() * 10;
+        }
+        return input;
+    }
+
+    private static float GetExpected(float[] row, float[][] input, int t)
+    {
+        double value = 0;
+        for(int c = 0; c < SpatialFilter.NumberOfInputChannels; c++)
+        {
+            if(row[c] != 0)
+                value += (double)row[c] * input[c][t];
+        }
+        return (float)value;
+    }
+
+    private static void AssertOutput(float[][] matrix, float[][] input, float[][] output, int numberOfOutputs)
+    {
+        for(int m = 0; m < numberOfOutputs; m++)
+        {
+            for(int t = 0; t < input[0].length; t++)
+                assertEquals(GetExpected(matrix[m], input, t), output[m][t], 1e-4);
+        }
+    }
+
+    private static void AssertInvalid(int[] centers, int[][] neighbours)
+    {
+        try
+        {
+            SpatialFilter.Laplacian(centers, neighbours);
+            fail("Invalid Laplacian accepted.");
+        }
+        catch(Exception e)
+        {
+            //not an ArrayIndexOutOfBoundsException
+            assertEquals(Exception.class, e.getClass());
+        }
+    }
+}
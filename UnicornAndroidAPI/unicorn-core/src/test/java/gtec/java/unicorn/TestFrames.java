@@ -0,0 +1,75 @@
+package gtec.java.unicorn;
+
+/**
+ * Builds raw Unicorn frames for tests.
+ */
+final class TestFrames {
+
+    final static int FrameLength = 45;
+
+    private TestFrames()
+    {
+    }
+
+    /**
+     * Returns a valid frame with the given counter, eeg raw values (24 bit), accelerometer and gyroscope raw values (16 bit).
+     */
+    static byte[] Create(long counter, int[] eeg, short[] acc, short[] gyr, int battery)
+    {
+        byte[] frame = new byte[FrameLength];
+
+        //header
+        frame[0] = (byte)0xC0;
+        frame[1] = 0x00;
+
+        //battery level
+        frame[2] = (byte)battery;
+
+        //eeg (big endian)
+        for(int i = 0; i < eeg.length; i++)
+        {
+            frame[3 + i * 3] = (byte)(eeg[i] >> 16);
+            frame[4 + i * 3] = (byte)(eeg[i] >> 8);
+            frame[5 + i * 3] = (byte)eeg[i];
+        }
+
+        //accelerometer and gyroscope (little endian)
+        for(int i = 0; i < acc.length; i++)
+        {
+            frame[27 + i * 2] = (byte)acc[i];
+            frame[28 + i * 2] = (byte)(acc[i] >> 8);
+        }
+        for(int i = 0; i < gyr.length; i++)
+        {
+            frame[33 + i * 2] = (byte)gyr[i];
+            frame[34 + i * 2] = (byte)(gyr[i] >> 8);
+        }
+
+        //counter (little endian)
+        frame[39] = (byte)counter;
+        frame[40] = (byte)(counter >> 8);
+        frame[41] = (byte)(counter >> 16);
+        frame[42] = (byte)(counter >> 24);
+
+        //footer
+        frame[43] = 0x0D;
+        frame[44] = 0x0A;
+        return frame;
+    }
+
+    static byte[] Create(long counter)
+    {
+        return Create(counter, new int[UnicornStream.NumberOfEEGChannels], new short[UnicornStream.NumberOfAccChannels], new short[UnicornStream.NumberOfGyrChannels], 0x0F);
+    }
+
+    /**
+     * Returns consecutive frames starting at the given counter (wrapping at 2^32).
+     */
+    static byte[] CreateSequence(long firstCounter, int numberOfFrames)
+    {
+        byte[] frames = new byte[numberOfFrames * FrameLength];
+        for(int i = 0; i < numberOfFrames; i++)
+            System.arraycopy(Create((firstCounter + i) & 0xFFFFFFFFL), 0, frames, i * FrameLength, FrameLength);
+        return frames;
+    }
+}
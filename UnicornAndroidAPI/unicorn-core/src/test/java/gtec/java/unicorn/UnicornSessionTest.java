@@ -0,0 +1,326 @@
+package gtec.java.unicorn;
+
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UnicornSessionTest {
+
+    private final static int WatchdogTimeoutMs = 50;
+    private final static long Wrap = 0x100000000L;
+
+    @Test(timeout = 10000)
+    public void ContinuedDeviceCounterGivesExactGap() throws Exception
+    {
+        TestDevice device = new TestDevice(new ScriptedDevice(100, 10));
+        device.AddReconnect(new ScriptedDevice(120, 5));
+        GapRecorder gaps = new GapRecorder();
+        UnicornSession session = CreateSession(device, gaps);
+        session.StartAcquisition();
+
+        for(int i = 0; i < 10; i++)
+        {
+            session.GetData();
+            assertEquals(100 + i, session.GetLastCounter());
+        }
+
+        //device counters 110 to 119 were lost, the device counter proves it
+        for(int i = 0; i < 10; i++)
+        {
+            float[] scan = session.GetData();
+            assertEquals(110 + i, session.GetLastCounter());
+            assertEquals(110 + i, scan[UnicornStream.CounterChannelIndex], 0);
+            assertEquals(0, scan[UnicornStream.ValidationIndicatorChannelIndex], 0);
+        }
+        assertEquals(1, gaps._numberOfGaps);
+        assertEquals(110, gaps._firstLostSample);
+        assertEquals(10, gaps._numberOfSamplesLost);
+        assertEquals(10, session.GetNumberOfSamplesLost());
+        assertEquals(1, session.GetNumberOfRecoveries());
+
+        float[] scan = session.GetData();
+        assertEquals(120, session.GetLastCounter());
+        assertEquals(1, scan[UnicornStream.ValidationIndicatorChannelIndex], 0);
+        assertEquals(1, device._numberOfReconnects);
+
+        session.StopAcquisition();
+        device.Close();
+    }
+
+    @Test(timeout = 10000)
+    public void FillScansRepeatPreviousScan() throws Exception
+    {
+        TestDevice device = new TestDevice(new ScriptedDevice(0, 3));
+        device.AddReconnect(new ScriptedDevice(6, 1));
+        UnicornSession session = CreateSession(device, null);
+        session.StartAcquisition();
+
+        float[] lastScan = null;
+        for(int i = 0; i < 3; i++)
+            lastScan = session.GetData().clone();
+
+        for(int i = 0; i < 3; i++)
+        {
+            float[] scan = session.GetData();
+            float[] expected = lastScan.clone();
+            expected[UnicornStream.CounterChannelIndex] = 3 + i;
+            expected[UnicornStream.ValidationIndicatorChannelIndex] = 0;
+            assertArrayEquals(expected, scan, 0);
+        }
+        assertEquals(6, session.GetData()[UnicornStream.CounterChannelIndex], 0);
+
+        session.StopAcquisition();
+        device.Close();
+    }
+
+    @Test(timeout = 10000)
+    public void RestartedDeviceCounterGivesEstimatedGap() throws Exception
+    {
+        //first reconnect attempt fails, the device restarts its counter on the second
+        TestDevice device = new TestDevice(new ScriptedDevice(100, 10));
+        device.AddReconnect(null);
+        device.AddReconnect(new ScriptedDevice(1, 2));
+        GapRecorder gaps = new GapRecorder();
+        UnicornSession session = CreateSession(device, gaps);
+        session.SetReconnectDelay(200);
+        session.StartAcquisition();
+
+        for(int i = 0; i < 10; i++)
+            session.GetData();
+
+        //the first fill scan triggers the recovery
+        session.GetData();
+        long numberOfSamplesLost = session.GetNumberOfSamplesLost();
+        long recoveryTimeMs = session.GetLastRecoveryTimeMs();
+        assertEquals(Math.max(0, Math.round(recoveryTimeMs * UnicornStream.SamplingRateInHz / 1000.0) - 1), numberOfSamplesLost);
+        assertTrue(numberOfSamplesLost >= 200 * UnicornStream.SamplingRateInHz / 1000 - 1);
+        assertEquals(numberOfSamplesLost, gaps._numberOfSamplesLost);
+        assertEquals(110, gaps._firstLostSample);
+        assertEquals(2, device._numberOfReconnects);
+
+        for(int i = 1; i < numberOfSamplesLost; i++)
+            assertEquals(0, session.GetData()[UnicornStream.ValidationIndicatorChannelIndex], 0);
+
+        //logical counter stays monotonic although the device counter went back
+        session.GetData();
+        assertEquals(110 + numberOfSamplesLost, session.GetLastCounter());
+        session.GetData();
+        assertEquals(111 + numberOfSamplesLost, session.GetLastCounter());
+
+        session.StopAcquisition();
+        device.Close();
+    }
+
+    @Test(timeout = 10000)
+    public void LogicalCounterContinuesAcrossWrapAndReconnect() throws Exception
+    {
+        TestDevice device = new TestDevice(new ScriptedDevice(Wrap - 5, 10));
+        device.AddReconnect(new ScriptedDevice(10, 3));
+        UnicornSession session = CreateSession(device, null);
+        session.StartAcquisition();
+
+        for(int i = 0; i < 10; i++)
+        {
+            session.GetData();
+            assertEquals(Wrap - 5 + i, session.GetLastCounter());
+        }
+
+        //device counters 5 to 9 lost after the wrap
+        for(int i = 0; i < 5; i++)
+        {
+            session.GetData();
+            assertEquals(Wrap + 5 + i, session.GetLastCounter());
+        }
+        for(int i = 0; i < 3; i++)
+        {
+            float[] scan = session.GetData();
+            assertEquals(Wrap + 10 + i, session.GetLastCounter());
+            assertEquals(1, scan[UnicornStream.ValidationIndicatorChannelIndex], 0);
+        }
+        assertEquals(5, session.GetNumberOfSamplesLost());
+
+        session.StopAcquisition();
+        device.Close();
+    }
+
+    @Test(timeout = 10000)
+    public void StallBeforeFirstScanIsNotAGap() throws Exception
+    {
+        TestDevice device = new TestDevice(new ScriptedDevice(0, 0));
+        device.AddReconnect(new ScriptedDevice(1000, 2));
+        GapRecorder gaps = new GapRecorder();
+        UnicornSession session = CreateSession(device, gaps);
+        session.StartAcquisition();
+
+        float[] scan = session.GetData();
+        assertEquals(1000, session.GetLastCounter());
+        assertEquals(1, scan[UnicornStream.ValidationIndicatorChannelIndex], 0);
+        session.GetData();
+        assertEquals(1001, session.GetLastCounter());
+
+        assertEquals(1, device._numberOfReconnects);
+        assertEquals(0, gaps._numberOfGaps);
+        assertEquals(0, session.GetNumberOfRecoveries());
+        assertEquals(0, session.GetNumberOfSamplesLost());
+
+        session.StopAcquisition();
+        device.Close();
+    }
+
+    @Test(timeout = 10000)
+    public void RecoveryFailsAfterMaxReconnectAttempts() throws Exception
+    {
+        TestDevice device = new TestDevice(new ScriptedDevice(0, 2));
+        UnicornSession session = CreateSession(device, null);
+        session.SetMaxReconnectAttempts(3);
+        session.StartAcquisition();
+        session.GetData();
+        session.GetData();
+
+        try
+        {
+            session.GetData();
+            fail("Recovery did not fail.");
+        }
+        catch(Exception e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Could not recover acquisition."));
+        }
+        assertEquals(3, device._numberOfReconnects);
+
+        try
+        {
+            session.GetData();
+            fail("Acquisition still running.");
+        }
+        catch(Exception e)
+        {
+            assertEquals("Acquisition not running", e.getMessage());
+        }
+        device.Close();
+    }
+
+    @Test(timeout = 10000)
+    public void StopDoesNotWaitForBlockedReconnect() throws Exception
+    {
+        //reconnect blocks like a Bluetooth connect until the device is closed
+        TestDevice device = new TestDevice(new ScriptedDevice(0, 2));
+        device.BlockReconnect();
+        UnicornSession session = CreateSession(device, null);
+        session.SetMaxReconnectAttempts(-1);
+        session.StartAcquisition();
+        session.GetData();
+        session.GetData();
+
+        Exception[] failure = new Exception[1];
+        Thread receiver = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    session.GetData();
+                }
+                catch(Exception e)
+                {
+                    failure[0] = e;
+                }
+            }
+        });
+        receiver.start();
+        assertTrue(device._reconnectEntered.await(5, TimeUnit.SECONDS));
+
+        //returns while the reconnect attempt is still blocked
+        session.StopAcquisition();
+        assertEquals(1, device._closed.getCount());
+
+        device.Close();
+        receiver.join(5000);
+        assertTrue(failure[0] != null);
+        assertTrue(failure[0].getMessage(), failure[0].getMessage().startsWith("Acquisition stopped during recovery."));
+        assertEquals(1, device._numberOfReconnects);
+    }
+
+    private static UnicornSession CreateSession(TestDevice device, GapRecorder gaps)
+    {
+        UnicornSession session = new UnicornSession(device);
+        session.SetWatchdogTimeout(WatchdogTimeoutMs);
+        session.SetReconnectDelay(0);
+        session.SetGapListener(gaps);
+        return session;
+    }
+
+    private static class GapRecorder implements UnicornSession.GapListener
+    {
+        private int _numberOfGaps = 0;
+        private long _firstLostSample = -1;
+        private int _numberOfSamplesLost = -1;
+
+        @Override
+        public void OnGap(long firstLostSample, int numberOfSamplesLost, long recoveryTimeMs)
+        {
+            _numberOfGaps++;
+            _firstLostSample = firstLostSample;
+            _numberOfSamplesLost = numberOfSamplesLost;
+        }
+    }
+
+    /**
+     * Stream that reconnects to the next scripted device; a null entry or no entry fails the attempt.
+     */
+    private static class TestDevice extends UnicornStream
+    {
+        private LinkedList<ScriptedDevice> _reconnects = new LinkedList<>();
+        private boolean _blockReconnect = false;
+        private volatile int _numberOfReconnects = 0;
+        private CountDownLatch _reconnectEntered = new CountDownLatch(1);
+        private CountDownLatch _closed = new CountDownLatch(1);
+
+        TestDevice(ScriptedDevice device)
+        {
+            super(device, device.GetOutputStream());
+        }
+
+        void AddReconnect(ScriptedDevice device)
+        {
+            _reconnects.add(device);
+        }
+
+        void BlockReconnect()
+        {
+            _blockReconnect = true;
+        }
+
+        @Override
+        public void Reconnect() throws Exception
+        {
+            _numberOfReconnects++;
+            if(_blockReconnect)
+            {
+                _reconnectEntered.countDown();
+                _closed.await();
+                throw new Exception("Device closed.");
+            }
+
+            ScriptedDevice device = _reconnects.poll();
+            if(device == null)
+                throw new Exception("Connection failed.");
+            SetStreams(device, device.GetOutputStream());
+        }
+
+        @Override
+        public void Close()
+        {
+            _closed.countDown();
+            super.Close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package gtec.java.unicorn;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class UnicornStreamTest {
+
+    @Test
+    public void CrcMatchesKnownVectors()
+    {
+        //start and stop acquisition messages as sent by previous releases
+        assertArrayEquals(new byte[] { 0x61, 124, -121 }, UnicornStream.FormMessage((byte)0x61));
+        assertArrayEquals(new byte[] { 0x63, 92, -59 }, UnicornStream.FormMessage((byte)0x63));
+
+        //crc-16/xmodem check value
+        byte[] check = "123456789".getBytes();
+        assertArrayEquals(new byte[] { 0x31, (byte)0xC3 }, UnicornStream.GetCRC16_CCITT(check, 0, check.length));
+    }
+
+    @Test
+    public void CrcMatchesBitwiseImplementation()
+    {
+        Random random = new Random(1);
+        for(int i = 0; i < 10000; i++)
+        {
+            byte[] data = new byte[1 + random.nextInt(64)];
+            random.nextBytes(data);
+            int offset = random.nextInt(data.length);
+            int length = random.nextInt(data.length - offset + 1);
+            assertArrayEquals(GetBitwiseCRC16_CCITT(data, offset, length), UnicornStream.GetCRC16_CCITT(data, offset, length));
+        }
+    }
+
+    @Test
+    public void RestartDoesNotInterpolateAgainstPreviousAcquisition() throws Exception
+    {
+        ScriptedDevice device = new ScriptedDevice();
+        UnicornStream stream = new UnicornStream(device, device.GetOutputStream());
+
+        //frames of the first acquisition arrive after the ack
+        device.SetFirstCounter(0, 0);
+        stream.StartAcquisition();
+        device.Append(TestFrames.CreateSequence(0, 5));
+        for(int i = 0; i < 5; i++)
+            assertEquals(i, stream.GetData()[UnicornStream.CounterChannelIndex], 0);
+        stream.StopAcquisition();
+
+        //ack and first frames of the new acquisition arrive in the same read
+        device.SetFirstCounter(1000, 5);
+        stream.StartAcquisition();
+        for(int i = 0; i < 5; i++)
+        {
+            float[] scan = stream.GetData();
+            assertEquals(1000 + i, scan[UnicornStream.CounterChannelIndex], 0);
+            assertEquals(1, scan[UnicornStream.ValidationIndicatorChannelIndex], 0);
+        }
+        stream.StopAcquisition();
+        stream.Close();
+    }
+
+    /**
+     * Bitwise crc of previous releases, kept as reference for the table based implementation.
+     */
+    private static byte[] GetBitwiseCRC16_CCITT(byte[] data, int arrayOffset, int dataSize)
+    {
+        short crcValue = 0;
+        byte[] crcBuffer = new byte[2];
+        for (int i = arrayOffset; i < arrayOffset + dataSize; i++)
+        {
+            crcValue = (short)(((crcValue >> 8) & 0xFF) | (crcValue << 8));
+            if (data[i] >= 0)
+                crcValue ^= data[i];
+            else
+                crcValue ^= (short)(data[i] + 256);
+            crcValue ^= (short)((crcValue & 0xFF) >> 4);
+            crcValue ^= (short)((crcValue << 8) << 4);
+            crcValue ^= (short)(((crcValue & 0xFF) << 4) << 1);
+        }
+        crcBuffer[0] = (byte)(crcValue >> 8);
+        crcBuffer[1] = (byte)crcValue;
+        return crcBuffer;
+    }
+}